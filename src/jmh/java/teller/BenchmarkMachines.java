@@ -0,0 +1,127 @@
+package teller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Creates the TellerMachine implementations compared by the benchmarks, by name.
+ */
+final class BenchmarkMachines {
+
+  private BenchmarkMachines() {
+  }
+
+  /**
+   * Creates an empty machine.
+   * @param name one of "limited", "synchronized", "concurrent", "snapshot", "pipelined" or
+   *             "journaled". "synchronized" is a LimitedTellerMachine behind one global lock, the
+   *             baseline for shared use. "pipelined" is a LimitedTellerMachine behind a ring of
+   *             1024 slots. "journaled" is a LimitedTellerMachine journaled into a temporary
+   *             directory, syncing every 64 operations and checkpointing every 2^20 records so
+   *             that old segments are deleted. Machines must be given back to
+   *             {@link #close(TellerMachine)} once the trial is over.
+   * @return a new, empty machine.
+   * @throws IllegalArgumentException if the name is unknown.
+   */
+  static TellerMachine create(String name) {
+    switch (name) {
+      case "limited":
+        return new LimitedTellerMachine();
+      case "synchronized":
+        return new SynchronizedTellerMachine(new LimitedTellerMachine());
+      case "concurrent":
+        return new ConcurrentTellerMachine();
+      case "snapshot":
+        return new SnapshotTellerMachine();
+      case "pipelined":
+        return new PipelinedTellerMachine(new LimitedTellerMachine(), 1024);
+      case "journaled":
+        try {
+          return new TemporaryJournal(Files.createTempDirectory("teller-journal"));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      default:
+        throw new IllegalArgumentException("Unknown teller machine " + name);
+    }
+  }
+
+  /**
+   * Releases what a machine holds: stops the consumer thread of a pipelined machine, and closes
+   * the journal of a journaled one and deletes its directory.
+   * @param machine a machine made by {@link #create(String)}, or null.
+   */
+  static void close(TellerMachine machine) {
+    if (machine instanceof Closeable) {
+      try {
+        ((Closeable) machine).close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * A journaled LimitedTellerMachine in a temporary directory, deleted when it is closed.
+   */
+  private static final class TemporaryJournal extends JournaledTellerMachine {
+    private final Path directory;
+
+    TemporaryJournal(Path directory) throws IOException {
+      super(new LimitedTellerMachine(), DenominationSet.STANDARD, directory, 1 << 20, 64,
+          1 << 20);
+      this.directory = directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      super.close();
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Guards every call to a delegate with one lock.
+   */
+  private static final class SynchronizedTellerMachine implements TellerMachine {
+    private final TellerMachine delegate;
+
+    SynchronizedTellerMachine(TellerMachine delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void deposit(int... deposit) {
+      delegate.deposit(deposit);
+    }
+
+    @Override
+    public synchronized boolean withdraw(int... request) {
+      return delegate.withdraw(request);
+    }
+
+    @Override
+    public synchronized boolean canWithdraw(int... request) {
+      return delegate.canWithdraw(request);
+    }
+
+    @Override
+    public synchronized int getQuantity(int denomination) {
+      return delegate.getQuantity(denomination);
+    }
+
+    @Override
+    public synchronized long getTotalValue() {
+      return delegate.getTotalValue();
+    }
+  }
+}
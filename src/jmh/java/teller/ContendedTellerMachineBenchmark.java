@@ -0,0 +1,99 @@
+package teller;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the thread-safe TellerMachine implementations under a mixed multi-threaded load:
+ * depositors of different denominations, withdrawers that break notes down, and pollers.
+ * "synchronized" is a LimitedTellerMachine behind one global lock, the status quo.
+ * Run with the GC profiler to see the allocation rate next to the throughput:
+ * mvn -P jmh package && java -jar target/benchmarks.jar ContendedTellerMachineBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedTellerMachineBenchmark {
+
+  @Param({"synchronized", "concurrent", "snapshot", "pipelined"})
+  public String machine;
+
+  private TellerMachine shared;
+
+  /**
+   * Builds and stocks the shared machine.
+   */
+  @Setup
+  public void setUp() {
+    shared = BenchmarkMachines.create(machine);
+    shared.deposit(1, 1000, 5, 1000, 10, 1000, 20, 1000);
+  }
+
+  /**
+   * Closes the shared machine, so a trial leaves no consumer thread running.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkMachines.close(shared);
+  }
+
+  /**
+   * Deposits 1s.
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(1)
+  public void depositOnes() {
+    shared.deposit(1, 5);
+  }
+
+  /**
+   * Deposits 20s.
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(1)
+  public void depositTwenties() {
+    shared.deposit(20, 1);
+  }
+
+  /**
+   * Withdraws 1s and 10s, breaking bigger notes when they run short.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public boolean withdraw() {
+    return shared.withdraw(1, 5, 10, 1);
+  }
+
+  /**
+   * Polls the quantity of every denomination.
+   * @return the sum of the quantities, consumed by JMH.
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public int poll() {
+    return shared.getQuantity(1) + shared.getQuantity(5) + shared.getQuantity(10)
+        + shared.getQuantity(20);
+  }
+}
@@ -0,0 +1,142 @@
+package teller;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded throughput of every TellerMachine path.
+ * Each scenario that withdraws deposits the same value back afterwards, so the machine returns to
+ * the state it started from and every invocation measures the same work.
+ * Run with the GC profiler to see the allocation rate next to the throughput:
+ * mvn -P jmh package && java -jar target/benchmarks.jar TellerMachineBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TellerMachineBenchmark {
+
+  @Param({"limited", "concurrent", "snapshot", "journaled"})
+  public String machine;
+
+  // Holds plenty of every denomination, withdrawals are served without breaking notes.
+  private TellerMachine stocked;
+
+  // Holds only 20s, so withdrawing 1s breaks notes through every tier.
+  private TellerMachine twenties;
+
+  // Holds only 1s, so requests for bigger notes fail even though the total is sufficient.
+  private TellerMachine ones;
+
+  // Receives deposits only.
+  private TellerMachine deposits;
+
+  /**
+   * Builds and stocks the machines used by the scenarios.
+   */
+  @Setup
+  public void setUp() {
+    stocked = BenchmarkMachines.create(machine);
+    stocked.deposit(1, 1000, 5, 1000, 10, 1000, 20, 1000);
+    twenties = BenchmarkMachines.create(machine);
+    twenties.deposit(20, 100000);
+    ones = BenchmarkMachines.create(machine);
+    ones.deposit(1, 1000);
+    deposits = BenchmarkMachines.create(machine);
+  }
+
+  /**
+   * Closes the machines, so a trial leaves no journal behind.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkMachines.close(stocked);
+    BenchmarkMachines.close(twenties);
+    BenchmarkMachines.close(ones);
+    BenchmarkMachines.close(deposits);
+  }
+
+  /**
+   * Withdraws notes that are all in stock.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  public boolean exactMatchWithdraw() {
+    boolean ok = stocked.withdraw(1, 3, 5, 1, 10, 1, 20, 2);
+    stocked.deposit(1, 3, 5, 1, 10, 1, 20, 2);
+    return ok;
+  }
+
+  /**
+   * Withdraws twenty 1s from a vault of 20s, breaking one note of each tier.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  public boolean deepBreakDown() {
+    boolean ok = twenties.withdraw(1, 20);
+    twenties.deposit(20, 1);
+    return ok;
+  }
+
+  /**
+   * Withdraws a million 1s from a vault of 20s.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  public boolean largeShortfall() {
+    boolean ok = twenties.withdraw(1, 1000000);
+    twenties.deposit(20, 50000);
+    return ok;
+  }
+
+  /**
+   * Requests a 20 from a vault of 1s, which fails without changing anything.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  public boolean failingWithdraw() {
+    return ones.withdraw(20, 1);
+  }
+
+  /**
+   * Checks whether twenty 1s could be withdrawn from a vault of 20s, which plans the break-down
+   * without committing it.
+   * @return the outcome, consumed by JMH.
+   */
+  @Benchmark
+  public boolean canWithdraw() {
+    return twenties.canWithdraw(1, 20);
+  }
+
+  /**
+   * Deposits one note of every denomination.
+   */
+  @Benchmark
+  public void depositBurst() {
+    deposits.deposit(1, 1, 5, 1, 10, 1, 20, 1);
+  }
+
+  /**
+   * Reads the quantity of every denomination.
+   * @return the sum of the quantities, consumed by JMH.
+   */
+  @Benchmark
+  public int getQuantity() {
+    return stocked.getQuantity(1) + stocked.getQuantity(5) + stocked.getQuantity(10)
+        + stocked.getQuantity(20);
+  }
+}
@@ -0,0 +1,25 @@
+package teller;
+
+/**
+ * How a teller machine chooses which bigger notes to break when a requested denomination runs
+ * short. The strategy is fixed when the machine is built.
+ * The strategies are a closed set that the break-down code branches on directly, rather than
+ * objects it calls through, so every call site stays monomorphic and the JIT can inline the
+ * chosen break-down into the withdrawal.
+ */
+public enum BreakDownStrategy {
+
+  /**
+   * Breaks the smallest bigger notes first and only moves up to bigger ones when those run out,
+   * so the highest denominations stay in the machine as long as possible. On a set where every
+   * denomination divides the next bigger one, this breaks notes one tier at a time, 20 into 10s,
+   * 10 into 5s, and so on. This is the default.
+   */
+  PRESERVE_HIGHEST,
+
+  /**
+   * Breaks the fewest bigger notes that cover the shortfall, paying any remainder back as change
+   * in the fewest notes, even when that means breaking a high denomination.
+   */
+  FEWEST_NOTES_BROKEN
+}
@@ -0,0 +1,71 @@
+package teller;
+
+/**
+ * Scratch buffers reused by ChangeMaker while it breaks notes down, owned by one thread at a time.
+ * The knapsack tables grow to the largest shortfall seen and are then reused, so a machine stops
+ * allocating once it has warmed up.
+ */
+final class ChangeBuffers {
+
+  // Number of notes to break per slot on an exact chain.
+  final long[] breaks;
+
+  // Notes broken down per slot, and notes produced into each slot by breaking, over one plan.
+  final long[] broken;
+  final long[] produced;
+
+  // For every reachable sum, the slot whose notes first reached it, -1 if not reached yet.
+  int[] tier = new int[0];
+
+  // For every reachable sum, how many notes of its 'tier' slot reach it.
+  long[] used = new long[0];
+
+  // For every sum, the fewest notes reaching it, and the same for the tier being added.
+  int[] fewest = new int[0];
+  int[] fewestNext = new int[0];
+
+  // Positions held by the sliding-window minimum while a tier is added.
+  int[] window = new int[0];
+
+  // For every tier and sum, how many notes of that tier the fewest-notes solution uses.
+  int[] choice = new int[0];
+
+  /**
+   * Creates the buffers for a set of denominations.
+   * @param slots the number of denominations in the set.
+   */
+  ChangeBuffers(int slots) {
+    breaks = new long[slots];
+    broken = new long[slots];
+    produced = new long[slots];
+  }
+
+  /**
+   * Makes sure the knapsack tables hold at least 'size' sums.
+   * @param size the number of sums needed.
+   */
+  void ensure(int size) {
+    if (tier.length < size) {
+      int grown = (int) Math.max(size, Math.min(ChangeMaker.MAX_SUMS, 2L * tier.length));
+      tier = new int[grown];
+      used = new long[grown];
+    }
+  }
+
+  /**
+   * Makes sure the fewest-notes tables hold at least 'size' sums for 'tiers' tiers.
+   * @param size the number of sums needed.
+   * @param tiers the number of bigger denominations searched.
+   */
+  void ensureFewest(int size, int tiers) {
+    if (fewest.length < size) {
+      int grown = (int) Math.max(size, Math.min(ChangeMaker.MAX_SUMS, 2L * fewest.length));
+      fewest = new int[grown];
+      fewestNext = new int[grown];
+      window = new int[grown];
+    }
+    if (choice.length < (long) size * tiers) {
+      choice = new int[size * tiers];
+    }
+  }
+}
@@ -0,0 +1,423 @@
+package teller;
+
+import java.util.Arrays;
+
+/**
+ * Shared arithmetic of the teller machines.
+ * Quantities are kept in primitive arrays indexed by the slots of a DenominationSet, slot 0
+ * holding the smallest denomination, and every method works in place on arrays supplied by the
+ * caller so that no call allocates.
+ */
+final class ChangeMaker {
+
+  // The most sums a knapsack table may hold. The bulk of a shortfall is taken directly from the
+  // bigger notes before the search, so a table only grows to the span of the set and the biggest
+  // denomination past that; a set whose span alone needs more sums is searched only this far.
+  static final int MAX_SUMS = 1 << 20;
+
+  // Marks a sum no combination of notes reaches.
+  private static final int UNREACHED = Integer.MAX_VALUE;
+
+  private ChangeMaker() {
+  }
+
+  /**
+   * Aggregates the (denomination, quantity) pairs of a withdrawal request per slot.
+   * @param set the supported denominations.
+   * @param request a non-empty, even number of integers.
+   * @param requested receives the requested quantity per slot.
+   * @return the total value requested, or -1 if any denomination is unsupported or any quantity
+   *         is negative.
+   */
+  static long aggregate(DenominationSet set, int[] request, long[] requested) {
+    return aggregate(set, request, 0, request.length, requested);
+  }
+
+  /**
+   * Aggregates the (denomination, quantity) pairs found between 'from' and 'to' in a buffer.
+   * @param set the supported denominations.
+   * @param buffer holds the pairs.
+   * @param from index of the first denomination.
+   * @param to index past the last quantity, an even distance from 'from'.
+   * @param requested receives the requested quantity per slot.
+   * @return the total value requested, or -1 if any denomination is unsupported or any quantity
+   *         is negative.
+   */
+  static long aggregate(DenominationSet set, int[] buffer, int from, int to, long[] requested) {
+    Arrays.fill(requested, 0);
+    long ttlReq = 0;
+    for (int i = from; i < to; i += 2) {
+      int den  = buffer[i];
+      int qty  = buffer[i + 1];
+      int slot = set.slotOf(den);
+      if (slot < 0 || qty < 0) {
+        return -1;
+      }
+      requested[slot] += qty;
+      ttlReq += (long) den * qty;
+    }
+    return ttlReq;
+  }
+
+  /**
+   * Counts the requests of a batch buffer, checking that it divides into whole requests.
+   * @param requests requests, each one its number of pairs followed by that many pairs.
+   * @return the number of requests.
+   * @throws IllegalArgumentException if a pair count is negative or runs past the buffer.
+   */
+  static int countRequests(int[] requests) {
+    int count = 0;
+    int i = 0;
+    while (i < requests.length) {
+      int pairs = requests[i];
+      if (pairs < 0 || pairs > (requests.length - i - 1) / 2) {
+        throw new IllegalArgumentException("Malformed request at index " + i);
+      }
+      i += 1 + 2 * pairs;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Calculates the total value of the given counts.
+   * @param set the supported denominations.
+   * @param counts quantity per slot.
+   * @return total value of all notes.
+   */
+  static long totalValue(DenominationSet set, long[] counts) {
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      total += set.values[i] * counts[i];
+    }
+    return total;
+  }
+
+  /**
+   * Applies a withdrawal to 'counts', from the largest requested denomination to the smallest,
+   * breaking bigger notes wherever a denomination runs short.
+   * 'counts' is expected to be a scratch copy: on failure it is left partially changed.
+   * The notes broken and produced per slot are left in the 'broken' and 'produced' buffers.
+   * @param set the supported denominations.
+   * @param strategy how bigger notes are chosen for breaking.
+   * @param counts quantity per slot, updated in place.
+   * @param requested requested quantity per slot.
+   * @param buffers scratch buffers of the calling thread.
+   * @return true if the whole request could be served.
+   */
+  static boolean plan(DenominationSet set, BreakDownStrategy strategy, long[] counts,
+                      long[] requested, ChangeBuffers buffers) {
+    Arrays.fill(buffers.broken, 0);
+    Arrays.fill(buffers.produced, 0);
+    for (int slot = counts.length - 1; slot >= 0; slot--) {
+      long needed = requested[slot];
+      // If we need zero, skip
+      if (needed == 0) {
+        continue;
+      }
+
+      // If enough notes of requested denomination are not present, produce them
+      if (counts[slot] < needed
+          && !produceDenomination(set, strategy, counts, slot, needed, buffers)) {
+        return false; // Cannot fulfill
+      }
+      // Remove the requested quantity
+      counts[slot] -= needed;
+    }
+    return true;
+  }
+
+  /**
+   * Produce enough notes of 'slot' in 'counts' so that we have at least 'targetTotal' in stock,
+   * by breaking bigger denominations.
+   * @return true if produced, false (with the counts untouched) if the bigger notes cannot cover
+   *         it.
+   */
+  static boolean produceDenomination(DenominationSet set, BreakDownStrategy strategy,
+                                     long[] counts, int slot, long targetTotal,
+                                     ChangeBuffers buffers) {
+    if (strategy == BreakDownStrategy.FEWEST_NOTES_BROKEN) {
+      return breakDownFewest(set, counts, slot, targetTotal, buffers);
+    }
+    return set.exact
+        ? breakDownChain(set, counts, slot, targetTotal, buffers)
+        : breakDownKnapsack(set, counts, slot, targetTotal, buffers);
+  }
+
+  /**
+   * Breaks notes down along an exact chain, in a stepwise manner.
+   * The number of notes to break at every tier is worked out arithmetically before anything is
+   * changed: a shortfall of n notes needs ceil(n / factor) notes of the next bigger tier, and
+   * only what that tier lacks is carried further up the chain. The result is then applied in one
+   * pass from the top tier down, so the cost does not depend on the quantity requested.
+   * @return true if produced, false (with the counts untouched) if the bigger tiers cannot cover
+   *         it.
+   */
+  static boolean breakDownChain(DenominationSet set, long[] counts, int slot, long targetTotal,
+                                ChangeBuffers buffers) {
+    int[] factors = set.factors;
+    long[] breaks = buffers.breaks;
+
+    // Work out how many notes of each bigger tier must be broken
+    long shortfall = targetTotal - counts[slot];
+    int top = slot;
+    while (shortfall > 0) {
+      // If top holds the biggest denomination, there's no bigger note
+      if (top == counts.length - 1) {
+        return false;
+      }
+      int bigger = top + 1;
+      breaks[bigger] = (shortfall + factors[top] - 1) / factors[top];
+      shortfall = breaks[bigger] - counts[bigger];
+      top = bigger;
+    }
+
+    // Break the notes, from the top tier down to the requested one
+    for (int bigger = top; bigger > slot; bigger--) {
+      counts[bigger] -= breaks[bigger];
+      counts[bigger - 1] += breaks[bigger] * factors[bigger - 1];
+      buffers.broken[bigger] += breaks[bigger];
+      buffers.produced[bigger - 1] += breaks[bigger] * factors[bigger - 1];
+    }
+    return true;
+  }
+
+  /**
+   * Breaks notes down for a set whose denominations do not divide each other, such as 20 and 50.
+   * It searches the bigger notes in stock, a bounded knapsack, for the smallest total that covers
+   * the missing value and leaves a remainder that can be paid back exactly in notes of the set.
+   * Sums are counted in steps of the greatest common divisor of the bigger notes and stop at the
+   * missing value plus the span of the set, its Frobenius number plus the biggest denomination.
+   * Every remainder past the Frobenius number can be paid back, and the smallest sum past it is
+   * within one biggest note, so the search finds a break-down whenever one exists while the table
+   * is sized to the span of the set rather than to the shortfall: the bulk of a large shortfall is
+   * first taken from the smallest bigger notes, leaving at most the span plus the biggest
+   * denomination to search. Smaller bigger notes are tried first, so the biggest notes are kept
+   * whenever the smaller ones suffice.
+   * @return true if produced, false (with the counts untouched) if no combination of bigger notes
+   *         can be broken into exactly the missing notes plus change.
+   */
+  static boolean breakDownKnapsack(DenominationSet set, long[] counts, int slot,
+                                   long targetTotal, ChangeBuffers buffers) {
+    int[] values = set.values;
+    long missing = targetTotal - counts[slot];
+    long target = missing * values[slot];
+
+    // The bigger notes must at least cover the missing value
+    long available = 0;
+    int step = 0;
+    for (int j = slot + 1; j < counts.length; j++) {
+      if (counts[j] > 0) {
+        available += values[j] * counts[j];
+        step = gcd(step, values[j]);
+      }
+    }
+    if (available < target) {
+      return false;
+    }
+
+    // Take the bulk of a large shortfall straight from the smallest bigger notes, rounding up so
+    // that at most 'window' is left to search
+    long[] taken = buffers.breaks;
+    long span = set.span;
+    long window = span + values[counts.length - 1];
+    long rest = target;
+    for (int j = slot + 1; j < counts.length; j++) {
+      taken[j] = rest > window ? Math.min(counts[j], ceilDiv(rest - window, values[j])) : 0;
+      rest -= taken[j] * values[j];
+    }
+
+    // Mark every sum of the remaining bigger notes, in steps of 'step', up to the search limit
+    int size = (int) Math.min(MAX_SUMS,
+        Math.min(available - (target - rest), rest + span) / step + 1);
+    buffers.ensure(size);
+    int[] tier = buffers.tier;
+    long[] used = buffers.used;
+    Arrays.fill(tier, 0, size, -1);
+    tier[0] = slot;
+    for (int j = slot + 1; j < counts.length; j++) {
+      long stock = counts[j] - taken[j];
+      if (stock == 0) {
+        continue;
+      }
+      int stride = values[j] / step;
+      for (int b = stride; b < size; b++) {
+        if (tier[b] < 0 && tier[b - stride] >= 0) {
+          long notes = tier[b - stride] == j ? used[b - stride] + 1 : 1;
+          if (notes <= stock) {
+            tier[b] = j;
+            used[b] = notes;
+          }
+        }
+      }
+    }
+
+    // Find the smallest reachable sum covering the rest whose remainder can be paid back
+    int found = -1;
+    for (int b = (int) ((rest + step - 1) / step); b < size && found < 0; b++) {
+      long remainder = (long) b * step - rest;
+      if (tier[b] >= 0 && set.payable(remainder)) {
+        found = b;
+      }
+    }
+    if (found < 0) {
+      return false;
+    }
+
+    // Break the chosen notes, then pay the missing notes and the change
+    long remainder = (long) found * step - rest;
+    for (int j = slot + 1; j < counts.length; j++) {
+      counts[j] -= taken[j];
+      buffers.broken[j] += taken[j];
+    }
+    for (int b = found; b > 0; b -= (int) (used[b] * (values[tier[b]] / step))) {
+      counts[tier[b]] -= used[b];
+      buffers.broken[tier[b]] += used[b];
+    }
+    counts[slot] += missing;
+    buffers.produced[slot] += missing;
+    set.pay(counts, remainder);
+    set.pay(buffers.produced, remainder);
+    return true;
+  }
+
+  /**
+   * Breaks the fewest bigger notes that cover the missing value and leave a remainder that can be
+   * paid back exactly, preferring the smaller total among equally few notes.
+   * It is a bounded knapsack that minimises the number of notes: every tier is added with a
+   * sliding-window minimum over each residue of its value, so the cost is linear in the number of
+   * sums per tier however many notes of it are in stock. Sums are counted in steps of the
+   * greatest common divisor of the bigger notes and stop at the missing value plus the span of
+   * the set, as for {@link #breakDownKnapsack}. The bulk of a large shortfall is taken directly
+   * from the biggest notes, leaving at most the span plus the biggest denomination to search.
+   * @return true if produced, false (with the counts untouched) if no combination of bigger notes
+   *         can be broken into exactly the missing notes plus change.
+   */
+  static boolean breakDownFewest(DenominationSet set, long[] counts, int slot, long targetTotal,
+                                 ChangeBuffers buffers) {
+    int[] values = set.values;
+    long missing = targetTotal - counts[slot];
+    long target = missing * values[slot];
+
+    // The bigger notes must at least cover the missing value
+    long available = 0;
+    int step = 0;
+    for (int j = slot + 1; j < counts.length; j++) {
+      if (counts[j] > 0) {
+        available += values[j] * counts[j];
+        step = gcd(step, values[j]);
+      }
+    }
+    if (available < target) {
+      return false;
+    }
+
+    // Take the bulk of a large shortfall straight from the biggest notes, rounding up so that at
+    // most 'window' is left to search
+    int tiers = counts.length - slot - 1;
+    long span = set.span;
+    long[] taken = buffers.breaks;
+    long window = span + values[counts.length - 1];
+    long rest = target;
+    for (int j = counts.length - 1; j > slot; j--) {
+      taken[j] = rest > window ? Math.min(counts[j], ceilDiv(rest - window, values[j])) : 0;
+      rest -= taken[j] * values[j];
+    }
+
+    // The fewest notes reaching every sum, in steps of 'step', adding one tier at a time
+    int size = (int) Math.min(MAX_SUMS / tiers,
+        Math.min(available - (target - rest), rest + span) / step + 1);
+    buffers.ensureFewest(size, tiers);
+    int[] best = buffers.fewest;
+    int[] next = buffers.fewestNext;
+    int[] queue = buffers.window;
+    int[] choice = buffers.choice;
+    Arrays.fill(best, 0, size, UNREACHED);
+    best[0] = 0;
+    for (int t = 0; t < tiers; t++) {
+      int j = slot + 1 + t;
+      long stock = Math.min(counts[j] - taken[j], size);
+      int offset = t * size;
+      if (stock == 0) {
+        Arrays.fill(choice, offset, offset + size, 0);
+        continue;
+      }
+      int stride = values[j] / step;
+      for (int r = 0; r < stride && r < size; r++) {
+        // Along sums r, r + stride, ..., keep the window of the last 'stock' positions whose
+        // notes minus position is smallest at the head
+        int head = 0;
+        int tail = 0;
+        for (int i = 0, b = r; b < size; i++, b += stride) {
+          if (best[b] != UNREACHED) {
+            while (tail > head
+                && best[r + queue[tail - 1] * stride] - queue[tail - 1] >= best[b] - i) {
+              tail--;
+            }
+            queue[tail++] = i;
+          }
+          while (tail > head && queue[head] < i - stock) {
+            head++;
+          }
+          if (tail > head) {
+            int from = queue[head];
+            next[b] = best[r + from * stride] + i - from;
+            choice[offset + b] = i - from;
+          } else {
+            next[b] = UNREACHED;
+          }
+        }
+      }
+      int[] swap = best;
+      best = next;
+      next = swap;
+    }
+
+    // Find the sum covering the rest with the fewest notes whose remainder can be paid back
+    int found = -1;
+    for (int b = (int) ((rest + step - 1) / step); b < size; b++) {
+      long remainder = (long) b * step - rest;
+      if (best[b] != UNREACHED && (found < 0 || best[b] < best[found])
+          && set.payable(remainder)) {
+        found = b;
+      }
+    }
+    if (found < 0) {
+      return false;
+    }
+
+    // Break the chosen notes, then pay the missing notes and the change
+    long remainder = (long) found * step - rest;
+    for (int t = tiers - 1, b = found; t >= 0; t--) {
+      int j = slot + 1 + t;
+      int k = choice[t * size + b];
+      counts[j] -= taken[j] + k;
+      buffers.broken[j] += taken[j] + k;
+      b -= k * values[j] / step;
+    }
+    counts[slot] += missing;
+    buffers.produced[slot] += missing;
+    set.pay(counts, remainder);
+    set.pay(buffers.produced, remainder);
+    return true;
+  }
+
+  /**
+   * Divides a positive dividend by a positive divisor, rounding up.
+   */
+  private static long ceilDiv(long dividend, long divisor) {
+    return dividend / divisor + (dividend % divisor != 0 ? 1 : 0);
+  }
+
+  /**
+   * Greatest common divisor, with gcd(0, b) = b.
+   */
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
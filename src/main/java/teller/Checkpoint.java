@@ -0,0 +1,165 @@
+package teller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary image of the counts of a teller machine, tagged with the journal position it
+ * was taken at, so recovery loads it and replays only the journal after that position.
+ * A checkpoint file holds a magic number, the position, the number of denominations, a
+ * (denomination, count) pair per denomination, and a CRC32 of everything before it. It is written
+ * to a temporary file, forced to disk and then renamed into place, so a checkpoint is either
+ * complete or absent. Files are named after their position.
+ */
+final class Checkpoint {
+
+  // First word of every checkpoint file.
+  private static final int MAGIC = 0x7E11C4E7;
+
+  // Suffix of checkpoint file names.
+  private static final String SUFFIX = ".checkpoint";
+
+  // The journal position the counts were taken at.
+  final long position;
+
+  // Denominations in ascending order, and their counts.
+  final int[] denominations;
+  final long[] counts;
+
+  private Checkpoint(long position, int[] denominations, long[] counts) {
+    this.position = position;
+    this.denominations = denominations;
+    this.counts = counts;
+  }
+
+  /**
+   * Writes a checkpoint durably into a directory.
+   * @param directory the directory holding the checkpoints.
+   * @param position the journal position the counts were taken at.
+   * @param set the denominations counted.
+   * @param counts the count of every slot of the set.
+   * @throws IOException if the checkpoint cannot be written.
+   */
+  static void write(Path directory, long position, DenominationSet set, long[] counts)
+      throws IOException {
+    ByteBuffer image = ByteBuffer.allocate(4 + 8 + 4 + 12 * set.size() + 8);
+    image.putInt(MAGIC).putLong(position).putInt(set.size());
+    for (int i = 0; i < set.size(); i++) {
+      image.putInt(set.values[i]).putLong(counts[i]);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(image.array(), 0, image.position());
+    image.putLong(crc.getValue());
+    image.flip();
+
+    Path temporary = directory.resolve(name(position) + ".tmp");
+    try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (image.hasRemaining()) {
+        out.write(image);
+      }
+      out.force(true);
+    }
+    Files.move(temporary, directory.resolve(name(position)), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the latest valid checkpoint in a directory, skipping any that are damaged.
+   * @param directory the directory holding the checkpoints.
+   * @return the latest checkpoint, or null if there is none.
+   * @throws IOException if the directory cannot be read.
+   */
+  static Checkpoint latest(Path directory) throws IOException {
+    List<Long> positions = positions(directory);
+    for (int i = positions.size() - 1; i >= 0; i--) {
+      Checkpoint checkpoint = read(directory.resolve(name(positions.get(i))));
+      if (checkpoint != null) {
+        return checkpoint;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Deletes the checkpoints before a position.
+   * @param directory the directory holding the checkpoints.
+   * @param position the position of the oldest checkpoint kept.
+   * @throws IOException if a checkpoint cannot be deleted.
+   */
+  static void deleteBefore(Path directory, long position) throws IOException {
+    for (long p : positions(directory)) {
+      if (p < position) {
+        Files.delete(directory.resolve(name(p)));
+      }
+    }
+  }
+
+  /**
+   * Lists the positions of the checkpoints in a directory, in ascending order.
+   * @param directory the directory holding the checkpoints.
+   * @return the positions, empty if there are none.
+   * @throws IOException if the directory cannot be read.
+   */
+  static List<Long> positions(Path directory) throws IOException {
+    List<Long> positions = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return positions;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        try {
+          positions.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not a checkpoint
+        }
+      }
+    }
+    Collections.sort(positions);
+    return positions;
+  }
+
+  /**
+   * Reads one checkpoint file, or returns null if it is damaged.
+   */
+  private static Checkpoint read(Path path) throws IOException {
+    ByteBuffer image = ByteBuffer.wrap(Files.readAllBytes(path));
+    if (image.remaining() < 4 + 8 + 4 + 8 || image.getInt() != MAGIC) {
+      return null;
+    }
+    long position = image.getLong();
+    int size = image.getInt();
+    if (size < 0 || image.remaining() != 12L * size + 8) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(image.array(), 0, image.capacity() - 8);
+    if (image.getLong(image.capacity() - 8) != crc.getValue()) {
+      return null;
+    }
+    int[] denominations = new int[size];
+    long[] counts = new long[size];
+    for (int i = 0; i < size; i++) {
+      denominations[i] = image.getInt();
+      counts[i] = image.getLong();
+    }
+    return new Checkpoint(position, denominations, counts);
+  }
+
+  /**
+   * Returns the file name of the checkpoint at a position.
+   */
+  private static String name(long position) {
+    return String.format("%020d%s", position, SUFFIX);
+  }
+}
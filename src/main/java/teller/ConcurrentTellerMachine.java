@@ -0,0 +1,377 @@
+package teller;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * TellerMachine implementation that can be shared across threads. It supports a limited set of
+ * denominations, by default 1, 5, 10, and 20, and follows the same break-down rules as
+ * LimitedTellerMachine.
+ * Every denomination lives in its own stripe, a count guarded by a StampedLock, so deposits of
+ * different denominations do not contend and getQuantity reads optimistically without blocking.
+ * A withdrawal is planned against an optimistic read of every stripe. It then write-locks only
+ * the stripes its plan changes, in slot order, and commits if none of those counts moved and no
+ * writer touched the other stripes in the meantime; a withdrawal that cannot be served commits
+ * if no writer touched any stripe. A withdrawal therefore only waits for, and only delays, the
+ * operations on the denominations it hands out or breaks. If the validation fails it re-plans
+ * once under every stripe. Every operation takes effect at a single instant between its call and
+ * its return.
+ */
+public class ConcurrentTellerMachine implements TellerMachine {
+
+  // Supported denominations and their lookup tables.
+  private final DenominationSet set;
+
+  // How bigger notes are chosen for breaking.
+  private final BreakDownStrategy strategy;
+
+  // One stripe per slot, always locked in ascending slot order.
+  private final Stripe[] stripes;
+
+  // Per-thread scratch buffers, so concurrent withdrawals plan without allocating.
+  private final ThreadLocal<Scratch> scratch;
+
+  /**
+   * Initialize every stripe to be empty, supporting denominations 1, 5, 10, and 20.
+   */
+  public ConcurrentTellerMachine() {
+    this(DenominationSet.STANDARD);
+  }
+
+  /**
+   * Initialize every stripe to be empty, supporting the given denominations.
+   * @param denominations the supported denominations.
+   */
+  public ConcurrentTellerMachine(DenominationSet denominations) {
+    this(denominations, BreakDownStrategy.PRESERVE_HIGHEST);
+  }
+
+  /**
+   * Initialize every stripe to be empty, supporting the given denominations and breaking
+   * notes down with the given strategy.
+   * @param denominations the supported denominations.
+   * @param strategy how bigger notes are chosen for breaking when a denomination runs short.
+   */
+  public ConcurrentTellerMachine(DenominationSet denominations, BreakDownStrategy strategy) {
+    set = denominations;
+    this.strategy = strategy;
+    stripes = new Stripe[set.size()];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+    scratch = ThreadLocal.withInitial(() -> new Scratch(set.size()));
+  }
+
+  /**
+   * Deposit the specified pairs of (denomination, quantity).
+   * The whole deposit is validated before anything is added, and is then applied atomically
+   * while holding the stripes of the denominations it touches.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the number of parameters is odd,
+   *         if any denomination is unsupported, or if any quantity is negative.
+   */
+  @Override
+  public void deposit(int... deposit) throws IllegalArgumentException {
+    // Checks if the deposit is null, if yes it returns nothing, so no change in machine
+    if (deposit == null || deposit.length == 0) {
+      return; // No action
+    }
+
+    // Checks if the deposit has pairs, if not throws exception
+    if (deposit.length % 2 != 0) {
+      throw new IllegalArgumentException("Deposit arguments must be in pairs");
+    }
+
+    // Validates and aggregates the quantities per slot before touching any stripe
+    Scratch sc = scratch.get();
+    long[] added = sc.requested;
+    Arrays.fill(added, 0);
+    for (int i = 0; i < deposit.length; i += 2) {
+      int slot = set.slotOf(deposit[i]);
+      int qty  = deposit[i + 1];
+      if (slot < 0) {
+        throw new IllegalArgumentException("Unsupported denomination");
+      }
+      if (qty < 0) {
+        throw new IllegalArgumentException("Cannot deposit a negative quantity");
+      }
+      added[slot] += qty;
+    }
+
+    // Lock only the stripes being added to, in ascending slot order
+    long[] stamps = sc.stamps;
+    for (int i = 0; i < stripes.length; i++) {
+      if (added[i] != 0) {
+        stamps[i] = stripes[i].lock.writeLock();
+      }
+    }
+    for (int i = stripes.length - 1; i >= 0; i--) {
+      if (added[i] != 0) {
+        stripes[i].count += added[i];
+        stripes[i].lock.unlockWrite(stamps[i]);
+      }
+    }
+  }
+
+  /**
+   * Withdraw the specified pair of (denomination, quantity) from this machine.
+   * Uses the bigger notes to make up for the shortage of the requested notes.
+   * The withdrawal is all-or-nothing and atomic with respect to every other operation.
+   *
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   */
+  @Override
+  public boolean withdraw(int... request) {
+    // Checks if the request is null, so no change in machine
+    if (request == null || request.length == 0) {
+      return true; // No action needed
+    }
+
+    // Checks if the deposit has pairs, if not return false
+    if (request.length % 2 != 0) {
+      return false;
+    }
+
+    // Requested quantities are aggregated per slot, an invalid request is rejected
+    Scratch sc = scratch.get();
+    long ttlReq = ChangeMaker.aggregate(set, request, sc.requested);
+    if (ttlReq < 0) {
+      return false;
+    }
+
+    // Plan optimistically against the counts as they are now, without blocking anyone
+    for (int i = 0; i < stripes.length; i++) {
+      sc.reads[i] = stripes[i].lock.tryOptimisticRead();
+      sc.seen[i] = stripes[i].count;
+    }
+    if (plan(sc, ttlReq)) {
+      if (commitTouched(sc)) {
+        return true;
+      }
+    } else if (unchanged(sc)) {
+      return false;
+    }
+
+    // A count moved since it was read, so plan again and commit under every stripe
+    long[] stamps = sc.stamps;
+    for (int i = 0; i < stripes.length; i++) {
+      stamps[i] = stripes[i].lock.writeLock();
+    }
+    try {
+      for (int i = 0; i < stripes.length; i++) {
+        sc.seen[i] = stripes[i].count;
+      }
+      boolean success = plan(sc, ttlReq);
+      if (success) {
+        for (int i = 0; i < stripes.length; i++) {
+          stripes[i].count = sc.plan[i];
+        }
+      }
+      return success;
+    } finally {
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        stripes[i].lock.unlockWrite(stamps[i]);
+      }
+    }
+  }
+
+  /**
+   * Commits the plan of 'sc' under the locks of the stripes it changes, if those still hold the
+   * counts it was planned against and no writer took any other stripe since it was read.
+   * @return true if the plan was committed, false if the counts may have moved.
+   */
+  private boolean commitTouched(Scratch sc) {
+    long[] stamps = sc.stamps;
+    for (int i = 0; i < stripes.length; i++) {
+      if (sc.plan[i] != sc.seen[i]) {
+        stamps[i] = stripes[i].lock.writeLock();
+      }
+    }
+    boolean valid = true;
+    try {
+      for (int i = 0; i < stripes.length && valid; i++) {
+        valid = sc.plan[i] != sc.seen[i]
+            ? stripes[i].count == sc.seen[i]
+            : stripes[i].lock.validate(sc.reads[i]);
+      }
+      if (valid) {
+        for (int i = 0; i < stripes.length; i++) {
+          if (sc.plan[i] != sc.seen[i]) {
+            stripes[i].count = sc.plan[i];
+          }
+        }
+      }
+    } finally {
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        if (sc.plan[i] != sc.seen[i]) {
+          stripes[i].lock.unlockWrite(stamps[i]);
+        }
+      }
+    }
+    return valid;
+  }
+
+  /**
+   * Checks that no writer took any stripe since 'sc' read it optimistically.
+   * @return true if the counts read are still current.
+   */
+  private boolean unchanged(Scratch sc) {
+    boolean valid = true;
+    for (int i = 0; i < stripes.length; i++) {
+      valid &= stripes[i].lock.validate(sc.reads[i]);
+    }
+    return valid;
+  }
+
+  /**
+   * Checks for numbers of denominations present
+   * @return number of denominations we have of that particular denomination
+   *         if the denomination is not supported, returns 0.
+   */
+  @Override
+  public int getQuantity(int denomination) {
+    int slot = set.slotOf(denomination);
+    if (slot < 0) {
+      return 0;
+    }
+    return (int) Math.min(stripes[slot].read(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the total value of the notes as of a single instant.
+   * Every stripe is read optimistically and then validated, so the sum is of counts that were all
+   * current at once; if a writer got in the way the stripes are read again under their locks.
+   * @return total value of all notes in the machine.
+   */
+  @Override
+  public long getTotalValue() {
+    Scratch sc = scratch.get();
+    readAll(sc);
+    return ChangeMaker.totalValue(set, sc.seen);
+  }
+
+  /**
+   * Checks whether a withdrawal would succeed against the counts as of a single instant, read as
+   * for {@link #getTotalValue()}. No lock is written, so the check never blocks a withdrawal.
+   * @param request an even number of integers.
+   * @return true if withdrawing the request now would succeed.
+   */
+  @Override
+  public boolean canWithdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true;
+    }
+    if (request.length % 2 != 0) {
+      return false;
+    }
+    Scratch sc = scratch.get();
+    long ttlReq = ChangeMaker.aggregate(set, request, sc.requested);
+    if (ttlReq < 0) {
+      return false;
+    }
+    readAll(sc);
+    return plan(sc, ttlReq);
+  }
+
+  /**
+   * Copies the count of every denomination of a set as of a single instant, read as for
+   * {@link #getTotalValue()}, without saturating it to an int.
+   * @param denominations the denominations to read.
+   * @param counts receives the count per slot of 'denominations', 0 for any not supported.
+   */
+  void readCounts(DenominationSet denominations, long[] counts) {
+    Scratch sc = scratch.get();
+    readAll(sc);
+    for (int i = 0; i < counts.length; i++) {
+      int slot = set.slotOf(denominations.values[i]);
+      counts[i] = slot < 0 ? 0 : sc.seen[slot];
+    }
+  }
+
+  /**
+   * Reads every stripe into 'seen' as of a single instant, optimistically, or under read locks if
+   * a writer got in the way.
+   */
+  private void readAll(Scratch sc) {
+    boolean valid = true;
+    for (int i = 0; i < stripes.length; i++) {
+      sc.stamps[i] = stripes[i].lock.tryOptimisticRead();
+      sc.seen[i] = stripes[i].count;
+    }
+    for (int i = 0; i < stripes.length; i++) {
+      valid &= stripes[i].lock.validate(sc.stamps[i]);
+    }
+    if (!valid) {
+      for (int i = 0; i < stripes.length; i++) {
+        sc.stamps[i] = stripes[i].lock.readLock();
+      }
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        sc.seen[i] = stripes[i].count;
+        stripes[i].lock.unlockRead(sc.stamps[i]);
+      }
+    }
+  }
+
+  /**
+   * Plans the aggregated request of 'sc' against its 'seen' counts, leaving the result in 'plan'.
+   * @return true if the whole request could be served from the seen counts.
+   */
+  private boolean plan(Scratch sc, long ttlReq) {
+    // Check if enough total money is present
+    if (ttlReq > ChangeMaker.totalValue(set, sc.seen)) {
+      return false;
+    }
+    System.arraycopy(sc.seen, 0, sc.plan, 0, sc.plan.length);
+    return ChangeMaker.plan(set, strategy, sc.plan, sc.requested, sc.buffers);
+  }
+
+  /**
+   * The count of one denomination and the lock guarding it.
+   * The padding keeps neighbouring stripes off the same cache line.
+   */
+  private static final class Stripe {
+    final StampedLock lock = new StampedLock();
+    long count;
+    long p1, p2, p3, p4, p5, p6, p7;
+
+    /**
+     * Reads the count, optimistically if no writer holds the stripe.
+     * @return the current count.
+     */
+    long read() {
+      long stamp = lock.tryOptimisticRead();
+      long value = count;
+      if (!lock.validate(stamp)) {
+        stamp = lock.readLock();
+        try {
+          value = count;
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Buffers owned by a single thread while it deposits or withdraws.
+   */
+  private static final class Scratch {
+    final long[] requested;
+    final long[] seen;
+    final long[] plan;
+    final ChangeBuffers buffers;
+    final long[] stamps;
+    final long[] reads;
+
+    Scratch(int slots) {
+      requested = new long[slots];
+      seen = new long[slots];
+      plan = new long[slots];
+      buffers = new ChangeBuffers(slots);
+      stamps = new long[slots];
+      reads = new long[slots];
+    }
+  }
+}
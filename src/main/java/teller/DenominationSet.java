@@ -0,0 +1,246 @@
+package teller;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of denominations supported by a teller machine, together with the primitive
+ * tables the machines use on their hot paths.
+ * Denominations are held in ascending order, each at a slot, slot 0 being the smallest. Building
+ * a set precomputes a table from denomination to slot, and the factor by which every denomination
+ * divides the next bigger one, so looking them up never searches.
+ * A set where every denomination divides the next bigger one, such as 1, 5, 10, 20, is exact and
+ * breaks notes down along that chain. Any other set, such as 10, 20, 50, breaks notes down by
+ * searching the bigger notes for a combination that can be paid out exactly, using a table of
+ * how to make change for every amount up to twice the biggest denomination.
+ */
+public final class DenominationSet {
+
+  /**
+   * The largest denomination a set may hold, which bounds the size of the slot table.
+   */
+  public static final int MAX_DENOMINATION = 1 << 16;
+
+  /**
+   * The denominations 1, 5, 10, and 20.
+   */
+  public static final DenominationSet STANDARD = of(1, 5, 10, 20);
+
+  // Denominations in ascending order, indexed by slot.
+  final int[] values;
+
+  // Slot of every denomination up to the largest one, -1 if it is not in the set.
+  private final int[] slots;
+
+  // How many notes of each slot one note of the next bigger slot breaks into; 0 for the top slot.
+  final int[] factors;
+
+  // True if every denomination divides the next bigger one exactly.
+  final boolean exact;
+
+  // For every amount up to twice the biggest denomination, the slot of the first note of the
+  // fewest notes paying it exactly, or -1 if it cannot be paid with this set.
+  final int[] change;
+
+  // For every residue modulo the smallest denomination, the smallest amount with that residue
+  // this set pays exactly, or Long.MAX_VALUE if none does.
+  private final long[] reach;
+
+  // For every residue, the slot of a note whose removal from its 'reach' amount leaves a payable
+  // amount, -1 for residue 0.
+  private final int[] last;
+
+  // How far past the missing value a break-down searches the sums of bigger notes: the Frobenius
+  // number plus the biggest denomination, and at least twice the biggest denomination.
+  final long span;
+
+  private DenominationSet(int[] values) {
+    this.values = values;
+    int biggest = values[values.length - 1];
+    this.slots = new int[biggest + 1];
+    this.factors = new int[values.length];
+    Arrays.fill(slots, -1);
+    boolean divides = true;
+    for (int i = 0; i < values.length; i++) {
+      slots[values[i]] = i;
+      if (i + 1 < values.length) {
+        factors[i] = values[i + 1] / values[i];
+        divides &= values[i + 1] % values[i] == 0;
+      }
+    }
+    this.exact = divides;
+
+    // Unbounded fewest-notes change for every amount, built up from the smallest amount
+    this.change = new int[2 * biggest + 1];
+    int[] notes = new int[change.length];
+    Arrays.fill(change, -1);
+    for (int amount = 1; amount < change.length; amount++) {
+      for (int i = 0; i < values.length && values[i] <= amount; i++) {
+        int rest = amount - values[i];
+        if ((rest == 0 || change[rest] >= 0)
+            && (change[amount] < 0 || notes[rest] + 1 < notes[amount])) {
+          change[amount] = i;
+          notes[amount] = notes[rest] + 1;
+        }
+      }
+    }
+
+    // Smallest payable amount per residue of the smallest denomination, going round the residue
+    // cycles of every bigger denomination from their smallest amount
+    int smallest = values[0];
+    this.reach = new long[smallest];
+    this.last = new int[smallest];
+    Arrays.fill(reach, Long.MAX_VALUE);
+    reach[0] = 0;
+    last[0] = -1;
+    for (int i = 1; i < values.length; i++) {
+      int v = values[i];
+      int cycles = gcd(smallest, v % smallest);
+      for (int p = 0; p < cycles && v % smallest != 0; p++) {
+        int n = p;
+        for (int r = (p + v) % smallest; r != p; r = (r + v) % smallest) {
+          if (reach[r] < reach[n]) {
+            n = r;
+          }
+        }
+        if (reach[n] == Long.MAX_VALUE) {
+          continue;
+        }
+        for (int k = 0; k < smallest / cycles; k++) {
+          int m = (n + v) % smallest;
+          if (reach[n] + v < reach[m]) {
+            reach[m] = reach[n] + v;
+            last[m] = i;
+          }
+          n = m;
+        }
+      }
+    }
+    long frobenius = 0;
+    for (long amount : reach) {
+      if (amount != Long.MAX_VALUE) {
+        frobenius = Math.max(frobenius, amount - smallest);
+      }
+    }
+    this.span = Math.max(2L * biggest, frobenius + biggest);
+  }
+
+  /**
+   * Checks whether this set pays an amount exactly, in constant time.
+   * @param amount a non-negative amount.
+   * @return true if some notes of this set add up to the amount.
+   */
+  boolean payable(long amount) {
+    return reach[(int) (amount % values[0])] <= amount;
+  }
+
+  /**
+   * Adds notes paying an amount exactly to 'counts': the fewest notes if the amount is in the
+   * change table, otherwise notes of the smallest denomination down to the smallest payable
+   * amount of its residue, and then that amount.
+   * @param counts quantity per slot, updated in place.
+   * @param amount an amount for which {@link #payable(long)} is true.
+   */
+  void pay(long[] counts, long amount) {
+    while (amount >= change.length) {
+      int r = (int) (amount % values[0]);
+      counts[0] += (amount - reach[r]) / values[0];
+      amount = reach[r];
+      if (amount >= change.length) {
+        counts[last[r]]++;
+        amount -= values[last[r]];
+      }
+    }
+    while (amount > 0) {
+      int k = change[(int) amount];
+      counts[k]++;
+      amount -= values[k];
+    }
+  }
+
+  /**
+   * Builds a set of denominations.
+   * @param denominations the supported denominations, in any order.
+   * @return the set.
+   * @throws IllegalArgumentException if no denomination is given, any denomination is not
+   *                                  positive or is above {@link #MAX_DENOMINATION}, or any is
+   *                                  given twice.
+   */
+  public static DenominationSet of(int... denominations) throws IllegalArgumentException {
+    if (denominations == null || denominations.length == 0) {
+      throw new IllegalArgumentException("At least one denomination is required");
+    }
+    int[] values = denominations.clone();
+    Arrays.sort(values);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] <= 0 || values[i] > MAX_DENOMINATION) {
+        throw new IllegalArgumentException("Unsupported denomination " + values[i]);
+      }
+      if (i > 0 && values[i] == values[i - 1]) {
+        throw new IllegalArgumentException("Duplicate denomination " + values[i]);
+      }
+    }
+    return new DenominationSet(values);
+  }
+
+  /**
+   * Returns the number of denominations in this set.
+   * @return the number of slots.
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * Returns the denomination held at a slot.
+   * @param slot a slot between 0 and {@link #size()} - 1.
+   * @return the denomination, slots in ascending order of denomination.
+   */
+  public int denomination(int slot) {
+    return values[slot];
+  }
+
+  /**
+   * Checks whether a denomination is in this set.
+   * @param denomination the denomination to check.
+   * @return true if it is supported.
+   */
+  public boolean contains(int denomination) {
+    return slotOf(denomination) >= 0;
+  }
+
+  /**
+   * Looks up the slot of a denomination in constant time.
+   * @param denomination the denomination to look up.
+   * @return the slot of the denomination, or -1 if it is not in this set.
+   */
+  int slotOf(int denomination) {
+    return denomination >= 0 && denomination < slots.length ? slots[denomination] : -1;
+  }
+
+  /**
+   * Greatest common divisor, with gcd(a, 0) = a.
+   */
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof DenominationSet && Arrays.equals(values, ((DenominationSet) o).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values);
+  }
+}
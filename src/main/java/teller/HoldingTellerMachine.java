@@ -0,0 +1,370 @@
+package teller;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * A TellerMachine decorator that can set notes aside for a withdrawal under a hold, to be
+ * confirmed or released later.
+ * Reserving withdraws the request from the delegate with the usual break-down rules, so no other
+ * request can take those notes, and keeps under a hold id how the counts of the delegate moved:
+ * the notes taken out, and the change left behind when bigger notes were broken. Confirming
+ * dispenses the held notes; releasing deposits the notes taken out and withdraws the change
+ * again, so a hold abandoned before anything else happened leaves the machine exactly as it was.
+ * A hold that is neither confirmed nor released within its time to live is released when it
+ * expires.
+ * Holds wait in a hashed timer wheel: a ring of buckets, one per tick, each a linked list of the
+ * holds expiring on a tick that maps to it. Expiring walks only the buckets of the ticks that have
+ * passed, so the cost does not grow with the number of open holds. Expired holds are reclaimed on
+ * every call, or by calling {@link #expire()} periodically. Holds are pooled and their ids carry a
+ * generation, so an id that was confirmed, released or expired never matches a later hold.
+ * Every method takes one lock, so the machine can be shared across threads.
+ */
+public class HoldingTellerMachine implements TellerMachine {
+
+  /**
+   * Returned by {@link #reserve(long, int...)} when the request cannot be served.
+   */
+  public static final long NO_HOLD = -1;
+
+  // The machine holding the notes that are not held.
+  private final TellerMachine delegate;
+
+  // The denominations of the delegate, whose counts a hold records.
+  private final DenominationSet set;
+
+  // Scratch counts of the delegate before a reservation, then how far each fell.
+  private final long[] before;
+
+  // Nanoseconds per tick of the wheel, and where the clock started.
+  private final long tickNanos;
+  private final LongSupplier clock;
+  private final long origin;
+
+  // Buckets of the wheel, a power of two of them, each the first hold of a linked list.
+  private final Hold[] wheel;
+
+  // Every hold ever created, by index; free ones are reused through 'free'.
+  private Hold[] holds = new Hold[16];
+  private int created;
+  private int[] free = new int[16];
+  private int freeCount;
+
+  // Holds not yet confirmed, released or expired.
+  private int open;
+
+  // The last tick whose bucket has been expired.
+  private long tick;
+
+  /**
+   * Wraps a machine, with 1 ms ticks on a wheel of 4096 buckets, timed by System.nanoTime.
+   * @param delegate the machine to hold notes from.
+   * @param denominations the denominations supported by the machine.
+   */
+  public HoldingTellerMachine(TellerMachine delegate, DenominationSet denominations) {
+    this(delegate, denominations, 1_000_000L, 4096, System::nanoTime);
+  }
+
+  /**
+   * Wraps a machine.
+   * @param delegate the machine to hold notes from.
+   * @param denominations the denominations supported by the machine.
+   * @param tickNanos the resolution of expiry in nanoseconds; a hold expires up to one tick late.
+   * @param buckets the number of buckets in the wheel, rounded up to a power of two. A wheel
+   *                covering the usual time to live in one turn walks each bucket once per turn.
+   * @param clock the time in nanoseconds.
+   * @throws IllegalArgumentException if 'tickNanos' or 'buckets' is not positive.
+   */
+  public HoldingTellerMachine(TellerMachine delegate, DenominationSet denominations,
+                              long tickNanos, int buckets, LongSupplier clock)
+      throws IllegalArgumentException {
+    if (tickNanos <= 0 || buckets <= 0 || buckets > 1 << 30) {
+      throw new IllegalArgumentException("Tick and bucket count must be positive");
+    }
+    this.delegate = delegate;
+    this.set = denominations;
+    this.before = new long[set.size()];
+    this.tickNanos = tickNanos;
+    this.clock = clock;
+    this.origin = clock.getAsLong();
+    int size = 1;
+    while (size < buckets) {
+      size <<= 1;
+    }
+    this.wheel = new Hold[size];
+  }
+
+  /**
+   * Sets aside the notes for a withdrawal under a new hold.
+   * @param ttlNanos how long the hold lasts before its notes go back, in nanoseconds.
+   * @param request an even number of integers, as for {@link #withdraw(int...)}.
+   * @return the id of the hold, or {@link #NO_HOLD} if the request cannot be served.
+   * @throws IllegalArgumentException if 'ttlNanos' is negative.
+   */
+  public synchronized long reserve(long ttlNanos, int... request) throws IllegalArgumentException {
+    if (ttlNanos < 0) {
+      throw new IllegalArgumentException("Time to live cannot be negative");
+    }
+    long now = expireUntil(clock.getAsLong());
+    if (request == null || request.length == 0) {
+      return NO_HOLD;
+    }
+    for (int i = 0; i < before.length; i++) {
+      before[i] = delegate.getQuantity(set.values[i]);
+    }
+    if (!delegate.withdraw(request)) {
+      return NO_HOLD;
+    }
+
+    // The notes taken out are the counts that fell, the change left behind those that rose
+    Hold hold = allocate();
+    hold.pairs = fit(hold.pairs, request.length);
+    System.arraycopy(request, 0, hold.pairs, 0, request.length);
+    int taken = 0;
+    int change = 0;
+    for (int i = 0; i < before.length; i++) {
+      before[i] -= delegate.getQuantity(set.values[i]);
+      if (before[i] > 0) {
+        taken++;
+      } else if (before[i] < 0) {
+        change++;
+      }
+    }
+    hold.taken = fit(hold.taken, 2 * taken);
+    hold.change = fit(hold.change, 2 * change);
+    taken = 0;
+    change = 0;
+    for (int i = 0; i < before.length; i++) {
+      long moved = before[i];
+      if (moved > 0) {
+        hold.taken[taken++] = set.values[i];
+        hold.taken[taken++] = (int) moved;
+      } else if (moved < 0) {
+        hold.change[change++] = set.values[i];
+        hold.change[change++] = (int) -moved;
+      }
+    }
+    // Whole ticks rounded up, and a deadline past the last tick never expires
+    long ticks = Math.max(1, ttlNanos / tickNanos + (ttlNanos % tickNanos != 0 ? 1 : 0));
+    hold.deadline = ticks > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ticks;
+    link(hold);
+    open++;
+    return ((long) hold.generation << 32) | hold.index;
+  }
+
+  /**
+   * Dispenses the notes of a hold.
+   * @param hold the id returned by {@link #reserve(long, int...)}.
+   * @return true if the hold was open, false if it is unknown, already settled or expired.
+   */
+  public synchronized boolean confirm(long hold) {
+    expireUntil(clock.getAsLong());
+    Hold h = find(hold);
+    if (h == null) {
+      return false;
+    }
+    settle(h);
+    return true;
+  }
+
+  /**
+   * Puts the notes of a hold back into the machine, taking back the change it left behind.
+   * @param hold the id returned by {@link #reserve(long, int...)}.
+   * @return true if the hold was open, false if it is unknown, already settled or expired.
+   */
+  public synchronized boolean release(long hold) {
+    expireUntil(clock.getAsLong());
+    Hold h = find(hold);
+    if (h == null) {
+      return false;
+    }
+    restore(h);
+    settle(h);
+    return true;
+  }
+
+  /**
+   * Releases every hold whose time to live has passed.
+   * @return the number of holds released.
+   */
+  public synchronized int expire() {
+    int before = open;
+    expireUntil(clock.getAsLong());
+    return before - open;
+  }
+
+  /**
+   * Returns the number of holds not yet confirmed, released or expired.
+   * @return the number of open holds.
+   */
+  public synchronized int openHolds() {
+    return open;
+  }
+
+  @Override
+  public synchronized void deposit(int... deposit) throws IllegalArgumentException {
+    expireUntil(clock.getAsLong());
+    delegate.deposit(deposit);
+  }
+
+  @Override
+  public synchronized boolean withdraw(int... request) {
+    expireUntil(clock.getAsLong());
+    return delegate.withdraw(request);
+  }
+
+  @Override
+  public synchronized boolean canWithdraw(int... request) {
+    expireUntil(clock.getAsLong());
+    return delegate.canWithdraw(request);
+  }
+
+  /**
+   * Returns the quantity of a denomination available, not counting held notes.
+   * @param denomination the denomination whose quantity is requested.
+   * @return the quantity not held.
+   */
+  @Override
+  public synchronized int getQuantity(int denomination) {
+    return delegate.getQuantity(denomination);
+  }
+
+  /**
+   * Returns the total value available, not counting held notes.
+   * @return the value not held.
+   */
+  @Override
+  public synchronized long getTotalValue() {
+    return delegate.getTotalValue();
+  }
+
+  /**
+   * Expires the buckets of every tick up to a time.
+   * @return the tick of that time.
+   */
+  private long expireUntil(long nanos) {
+    long now = (nanos - origin) / tickNanos;
+    if (now <= tick) {
+      return tick;
+    }
+
+    // One turn of the wheel visits every bucket, so more steps than buckets are never needed
+    long steps = Math.min(now - tick, wheel.length);
+    for (long t = tick + 1; t <= tick + steps; t++) {
+      Hold h = wheel[(int) (t & (wheel.length - 1))];
+      while (h != null) {
+        Hold next = h.next;
+        if (h.deadline <= now) {
+          restore(h);
+          settle(h);
+        }
+        h = next;
+      }
+    }
+    tick = now;
+    return now;
+  }
+
+  /**
+   * Undoes the withdrawal of a hold: deposits the notes it took out and withdraws the change it
+   * left behind. If the change has since gone and cannot be made again, the requested notes are
+   * deposited instead, which puts back the same value.
+   */
+  private void restore(Hold h) {
+    delegate.deposit(h.taken);
+    if (h.change.length > 0 && !delegate.withdraw(h.change)) {
+      delegate.withdraw(h.taken);
+      delegate.deposit(h.pairs);
+    }
+  }
+
+  /**
+   * Returns an array of a length, reusing the given one if it fits.
+   */
+  private static int[] fit(int[] array, int length) {
+    return array != null && array.length == length ? array : new int[length];
+  }
+
+  /**
+   * Returns the open hold with an id, or null.
+   */
+  private Hold find(long id) {
+    int index = (int) id;
+    if (id < 0 || index >= created) {
+      return null;
+    }
+    Hold h = holds[index];
+    return h.open && h.generation == (int) (id >>> 32) ? h : null;
+  }
+
+  /**
+   * Takes a free hold from the pool, or creates one.
+   */
+  private Hold allocate() {
+    Hold h;
+    if (freeCount > 0) {
+      h = holds[free[--freeCount]];
+    } else {
+      if (created == holds.length) {
+        holds = Arrays.copyOf(holds, 2 * created);
+        free = Arrays.copyOf(free, 2 * created);
+      }
+      h = new Hold(created);
+      holds[created++] = h;
+    }
+    h.generation = (h.generation + 1) & Integer.MAX_VALUE;
+    h.open = true;
+    return h;
+  }
+
+  /**
+   * Closes a hold, unlinks it from the wheel and returns it to the pool.
+   */
+  private void settle(Hold h) {
+    if (h.prev != null) {
+      h.prev.next = h.next;
+    } else {
+      wheel[(int) (h.deadline & (wheel.length - 1))] = h.next;
+    }
+    if (h.next != null) {
+      h.next.prev = h.prev;
+    }
+    h.prev = null;
+    h.next = null;
+    h.open = false;
+    open--;
+    free[freeCount++] = h.index;
+  }
+
+  /**
+   * Puts a hold at the head of the bucket of its deadline.
+   */
+  private void link(Hold h) {
+    int bucket = (int) (h.deadline & (wheel.length - 1));
+    h.next = wheel[bucket];
+    if (h.next != null) {
+      h.next.prev = h;
+    }
+    wheel[bucket] = h;
+  }
+
+  /**
+   * A reservation: the pairs requested for it, the notes it took out of the delegate and the
+   * change it left there, the tick it expires on, and its links in the bucket of that tick.
+   */
+  private static final class Hold {
+    final int index;
+    int generation;
+    boolean open;
+    int[] pairs;
+    int[] taken;
+    int[] change;
+    long deadline;
+    Hold prev;
+    Hold next;
+
+    Hold(int index) {
+      this.index = index;
+    }
+  }
+}
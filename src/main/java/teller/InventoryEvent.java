@@ -0,0 +1,77 @@
+package teller;
+
+/**
+ * A change in the inventory of a teller machine: how the count of every denomination moved since
+ * the previous event delivered to the same subscriber, and the counts after it.
+ * A subscriber that falls behind receives one event covering every change it missed, so the
+ * deltas of an event may add up several deposits and withdrawals. The first event a subscriber
+ * receives counts from an empty machine, so its deltas equal its counts.
+ */
+public final class InventoryEvent {
+
+  private final DenominationSet set;
+  private final long version;
+  private final long[] deltas;
+  private final long[] counts;
+
+  /**
+   * Creates an event; the arrays are owned by the event from then on.
+   * @param set the denominations of the machine.
+   * @param version the number of changes the machine had published.
+   * @param deltas the change per slot.
+   * @param counts the count per slot after the change.
+   */
+  InventoryEvent(DenominationSet set, long version, long[] deltas, long[] counts) {
+    this.set = set;
+    this.version = version;
+    this.deltas = deltas;
+    this.counts = counts;
+  }
+
+  /**
+   * Returns the denominations of the machine.
+   * @return the denominations.
+   */
+  public DenominationSet denominations() {
+    return set;
+  }
+
+  /**
+   * Returns the number of changes the machine had published when the counts were read. A gap
+   * between the versions of consecutive events shows how many changes were coalesced.
+   * @return the version of the counts.
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * Returns how the count of a denomination moved since the previous event.
+   * @param denomination the denomination.
+   * @return the change in its count, 0 if it is not supported.
+   */
+  public long delta(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : deltas[slot];
+  }
+
+  /**
+   * Returns the count of a denomination after the change.
+   * @param denomination the denomination.
+   * @return its count, 0 if it is not supported.
+   */
+  public long count(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : counts[slot];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder("InventoryEvent{version=").append(version);
+    for (int i = 0; i < counts.length; i++) {
+      out.append(", ").append(set.values[i]).append(": ")
+          .append(deltas[i] >= 0 ? "+" : "").append(deltas[i]).append(" -> ").append(counts[i]);
+    }
+    return out.append('}').toString();
+  }
+}
@@ -0,0 +1,249 @@
+package teller;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes the inventory changes of one machine to any number of subscribers, without ever
+ * making the machine wait for them.
+ * The machine publishes its counts after every change into a sequence lock: the version is made
+ * odd, the counts are written, and the version is made even again. Publishing never blocks and
+ * allocates nothing itself; it only wakes the subscriptions that have demand. Waking one that is
+ * idle hands it to the executor, which may wrap it in a task of its own, as the fork-join pool
+ * does.
+ * Each subscription delivers on the executor. It reads the latest counts whenever it runs, and
+ * sends the difference from the counts it delivered last. A subscriber that is slow, or has not
+ * requested more, therefore gets one coalesced event for all the changes it missed instead of a
+ * queue of them.
+ */
+final class InventoryPublisher implements Flow.Publisher<InventoryEvent> {
+
+  private final DenominationSet set;
+  private final Executor executor;
+
+  // Twice the number of changes published, odd while the counts are being written.
+  private final AtomicLong version = new AtomicLong();
+
+  // The counts as of the last change.
+  private final AtomicLongArray counts;
+
+  // The live subscriptions, replaced as a whole when one is added or cancelled.
+  private volatile Subscription[] subscriptions = new Subscription[0];
+
+  /**
+   * Creates a publisher for a machine.
+   * @param set the denominations of the machine.
+   * @param initial the current count per slot.
+   * @param executor runs the deliveries to subscribers.
+   */
+  InventoryPublisher(DenominationSet set, long[] initial, Executor executor) {
+    this.set = set;
+    this.executor = executor;
+    this.counts = new AtomicLongArray(initial);
+  }
+
+  /**
+   * Publishes the counts after a change. Only the machine's own thread calls this.
+   * @param notes the count per slot; nothing is published if they have not changed.
+   */
+  void publish(long[] notes) {
+    int s = 0;
+    while (s < notes.length && counts.getPlain(s) == notes[s]) {
+      s++;
+    }
+    if (s == notes.length) {
+      return;
+    }
+    long v = version.getPlain();
+    version.setPlain(v + 1);
+    VarHandle.storeStoreFence();
+    for (; s < notes.length; s++) {
+      counts.setPlain(s, notes[s]);
+    }
+    version.setRelease(v + 2);
+
+    for (Subscription sub : subscriptions) {
+      if (sub.requested.get() > 0) {
+        sub.schedule();
+      }
+    }
+  }
+
+  /**
+   * Adds a subscriber. Its first event carries the counts at the time it is delivered.
+   * The subscription is registered before onSubscribe is called, and nothing is delivered until
+   * onSubscribe returns, so signals to the subscriber stay serial even if it requests from there.
+   * @param subscriber the subscriber.
+   * @throws NullPointerException if the subscriber is null.
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super InventoryEvent> subscriber) {
+    Objects.requireNonNull(subscriber);
+    Subscription sub = new Subscription(subscriber);
+    synchronized (this) {
+      Subscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+      grown[grown.length - 1] = sub;
+      subscriptions = grown;
+    }
+    try {
+      subscriber.onSubscribe(sub);
+    } finally {
+      sub.start();
+    }
+  }
+
+  /**
+   * Removes a cancelled subscription.
+   */
+  private synchronized void remove(Subscription sub) {
+    Subscription[] current = subscriptions;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == sub) {
+        Subscription[] shrunk = new Subscription[current.length - 1];
+        System.arraycopy(current, 0, shrunk, 0, i);
+        System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+        subscriptions = shrunk;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Copies a consistent view of the counts.
+   * @param into receives the count per slot.
+   * @return the version of the counts copied.
+   */
+  private long read(long[] into) {
+    while (true) {
+      long v = version.getAcquire();
+      if ((v & 1) == 0) {
+        for (int s = 0; s < into.length; s++) {
+          into[s] = counts.getPlain(s);
+        }
+        VarHandle.acquireFence();
+        if (version.getPlain() == v) {
+          return v;
+        }
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * One subscriber's demand and the counts it was last sent. Deliveries are serialized by a
+   * work-in-progress counter, so at most one runs at a time.
+   */
+  private final class Subscription implements Flow.Subscription, Runnable {
+    private final Flow.Subscriber<? super InventoryEvent> subscriber;
+
+    // Events requested and not yet delivered.
+    final AtomicLong requested = new AtomicLong();
+
+    // Signals not yet handled by a delivery run, starting at one for onSubscribe so that nothing
+    // is delivered while it runs.
+    private final AtomicInteger wip = new AtomicInteger(1);
+
+    volatile boolean cancelled;
+
+    // Sent to the subscriber by the next delivery run, then cleared.
+    private volatile Throwable error;
+
+    // The version and counts last delivered, and a buffer to read into; delivery runs only.
+    private long delivered = -1;
+    private final long[] last = new long[set.size()];
+    private final long[] read = new long[set.size()];
+
+    Subscription(Flow.Subscriber<? super InventoryEvent> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Must request a positive number of events");
+      } else {
+        requested.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      remove(this);
+    }
+
+    /**
+     * Makes sure a delivery run will see the latest counts.
+     */
+    void schedule() {
+      if (wip.getAndIncrement() == 0) {
+        execute();
+      }
+    }
+
+    /**
+     * Drops the signal held for onSubscribe once it has returned, and runs a delivery for any
+     * signal that came in meanwhile.
+     */
+    void start() {
+      if (wip.decrementAndGet() != 0) {
+        execute();
+      }
+    }
+
+    /**
+     * Hands a delivery run to the executor, cancelling if it refuses.
+     */
+    private void execute() {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        cancel();
+      }
+    }
+
+    /**
+     * Delivers the latest counts while the subscriber has demand and they have changed.
+     */
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        Throwable failure = error;
+        if (failure != null && !cancelled) {
+          cancel();
+          subscriber.onError(failure);
+        }
+        while (!cancelled && requested.get() > 0) {
+          long v = read(read);
+          if (v == delivered) {
+            break;
+          }
+          long[] deltas = new long[read.length];
+          for (int s = 0; s < read.length; s++) {
+            deltas[s] = read[s] - last[s];
+          }
+          System.arraycopy(read, 0, last, 0, read.length);
+          delivered = v;
+          if (requested.get() != Long.MAX_VALUE) {
+            requested.decrementAndGet();
+          }
+          try {
+            subscriber.onNext(new InventoryEvent(set, v / 2, deltas, last.clone()));
+          } catch (RuntimeException e) {
+            cancel(); // A subscriber that throws is treated as cancelled
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
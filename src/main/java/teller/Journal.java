@@ -0,0 +1,320 @@
+package teller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-only journal of the deposits and withdrawals applied to a machine, kept in a directory
+ * of memory-mapped segment files. Not thread safe; JournaledTellerMachine serializes access.
+ * Every (denomination, quantity) pair of an operation is one fixed-width record of
+ * {@link #RECORD_BYTES} bytes: a tag holding the kind of operation and whether this is its last
+ * pair, the denomination, the quantity, and a check word. Only operations whose last record is
+ * present and valid are replayed, so an operation torn by a crash is dropped as a whole.
+ * Positions count records from the start of the journal. Each segment is named after the
+ * position of its first record and holds a fixed number of records; a full segment is forced to
+ * disk and the journal rolls over to a new one.
+ * Records written to the mapping survive the process crashing as soon as they are written.
+ * Surviving the machine crashing needs the mapping forced to disk, which is done once every
+ * 'syncEvery' operations so that one fsync commits the whole group.
+ */
+final class Journal implements Closeable {
+
+  /**
+   * The size of one record in bytes.
+   */
+  static final int RECORD_BYTES = 16;
+
+  // Kinds of operation held in the low byte of a tag.
+  static final int DEPOSIT = 1;
+  static final int WITHDRAW = 2;
+
+  // Set in the tag of the last record of an operation.
+  private static final int LAST = 0x100;
+
+  // Mixed into the check word so that a zeroed record is never valid.
+  private static final int CHECK = 0x5EED7E11;
+
+  // Suffix of segment file names.
+  private static final String SUFFIX = ".journal";
+
+  private final Path directory;
+  private final int segmentRecords;
+  private final int syncEvery;
+
+  // The segment being appended to, its first position, and the number of records it holds.
+  private FileChannel channel;
+  private MappedByteBuffer segment;
+  private long segmentStart;
+  private int segmentCapacity;
+
+  // Position of the next record.
+  private long position;
+
+  // Operations appended since the mapping was last forced to disk.
+  private int unsynced;
+
+  private Journal(Path directory, int segmentRecords, int syncEvery) {
+    this.directory = directory;
+    this.segmentRecords = segmentRecords;
+    this.syncEvery = syncEvery;
+  }
+
+  /**
+   * Opens the journal in a directory, creating the directory if needed, and positions it after the
+   * last complete operation. The records of a torn operation at the end are erased.
+   * @param directory the directory holding the segments.
+   * @param from a position known to start an operation, where the search for the end starts.
+   * @param machine the machine to replay the operations after 'from' onto, or null.
+   * @param segmentRecords the number of records in each new segment.
+   * @param syncEvery the number of operations committed by one fsync, or 0 to sync only when
+   *                  {@link #sync()} is called.
+   * @return the open journal.
+   * @throws IOException if the journal cannot be read or written, or a withdrawal in it fails.
+   * @throws IllegalArgumentException if 'segmentRecords' is not positive or 'syncEvery' is
+   *                                  negative.
+   */
+  static Journal open(Path directory, long from, TellerMachine machine, int segmentRecords,
+                      int syncEvery) throws IOException {
+    if (segmentRecords <= 0 || (long) segmentRecords * RECORD_BYTES > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Unsupported segment size " + segmentRecords);
+    }
+    if (syncEvery < 0) {
+      throw new IllegalArgumentException("Sync batch cannot be negative");
+    }
+    Files.createDirectories(directory);
+    Journal journal = new Journal(directory, segmentRecords, syncEvery);
+    long end = replay(directory, from, machine);
+
+    // Segments past the one holding the end only hold torn records
+    long start = end;
+    for (long s : segments(directory)) {
+      if (s <= end) {
+        start = s;
+      } else {
+        Files.delete(segmentPath(directory, s));
+      }
+    }
+    journal.map(start);
+    journal.position = end;
+    if (end - start >= journal.segmentCapacity) {
+      journal.roll();
+    } else {
+      // Erases a torn operation after the end
+      for (int i = (int) (end - start) * RECORD_BYTES; i < journal.segment.capacity(); i += 4) {
+        journal.segment.putInt(i, 0);
+      }
+      journal.segment.force();
+    }
+    return journal;
+  }
+
+  /**
+   * Returns the position after the last record appended.
+   * @return the number of records in the journal.
+   */
+  long position() {
+    return position;
+  }
+
+  /**
+   * Appends one operation, forcing the group to disk if it completes a batch.
+   * @param kind {@link #DEPOSIT} or {@link #WITHDRAW}.
+   * @param pairs the (denomination, quantity) pairs of the operation, at least one.
+   * @throws IOException if a segment cannot be created or forced.
+   */
+  void append(int kind, int[] pairs) throws IOException {
+    for (int i = 0; i < pairs.length; i += 2) {
+      if (position - segmentStart == segmentCapacity) {
+        roll();
+      }
+      int tag = i + 2 == pairs.length ? kind | LAST : kind;
+      int at = (int) (position - segmentStart) * RECORD_BYTES;
+      segment.putInt(at + 4, pairs[i]);
+      segment.putInt(at + 8, pairs[i + 1]);
+      segment.putInt(at + 12, check(tag, pairs[i], pairs[i + 1]));
+      segment.putInt(at, tag);
+      position++;
+    }
+    if (++unsynced == syncEvery) {
+      sync();
+    }
+  }
+
+  /**
+   * Forces every record appended so far to disk.
+   * @throws IOException if the segment cannot be forced.
+   */
+  void sync() throws IOException {
+    if (unsynced > 0) {
+      segment.force();
+      unsynced = 0;
+    }
+  }
+
+  /**
+   * Deletes the segments holding only records before a position. The current segment is kept.
+   * @param position the position of the first record that must be kept.
+   * @throws IOException if a segment cannot be deleted.
+   */
+  void deleteBefore(long position) throws IOException {
+    List<Long> starts = segments(directory);
+    for (int i = 0; i + 1 < starts.size() && starts.get(i + 1) <= position
+        && starts.get(i) < segmentStart; i++) {
+      Files.delete(segmentPath(directory, starts.get(i)));
+    }
+  }
+
+  /**
+   * Forces the journal to disk and closes the current segment.
+   * @throws IOException if the segment cannot be forced or closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel.isOpen()) {
+      sync();
+      channel.close();
+    }
+  }
+
+  /**
+   * Forces the full segment to disk and starts a new one at the current position.
+   */
+  private void roll() throws IOException {
+    segment.force();
+    unsynced = 0;
+    channel.close();
+    map(position);
+  }
+
+  /**
+   * Maps the segment starting at a position, creating it if it does not exist yet.
+   */
+  private void map(long start) throws IOException {
+    Path path = segmentPath(directory, start);
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    long bytes = channel.size() > 0 ? channel.size() : (long) segmentRecords * RECORD_BYTES;
+    segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    segmentStart = start;
+    segmentCapacity = (int) (bytes / RECORD_BYTES);
+  }
+
+  /**
+   * Replays the complete operations of a journal onto a machine, from a position on.
+   * @param directory the directory holding the segments.
+   * @param from the position of the first record to replay, which must start an operation.
+   *             Reading starts at the segment holding it, so earlier segments may be deleted.
+   * @param machine the machine to apply the operations to, or null to only find the end.
+   * @return the position after the last complete operation.
+   * @throws IOException if a segment cannot be read, or a withdrawal in the journal fails.
+   */
+  static long replay(Path directory, long from, TellerMachine machine) throws IOException {
+    // Starts at the last segment starting at or before 'from'
+    List<Long> starts = segments(directory);
+    int first = starts.size() - 1;
+    while (first >= 0 && starts.get(first) > from) {
+      first--;
+    }
+    if (first < 0) {
+      return from; // Nothing journaled after 'from'
+    }
+    long end = starts.get(first);
+    long next = end;
+    int[] pairs = new int[16];
+    int pending = 0;
+    for (long start : starts.subList(first, starts.size())) {
+      if (start != next) {
+        break; // A segment is missing, the journal ends here
+      }
+      try (FileChannel in = FileChannel.open(segmentPath(directory, start),
+          StandardOpenOption.READ)) {
+        MappedByteBuffer segment = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        int capacity = (int) (in.size() / RECORD_BYTES);
+        int i = 0;
+        for (; i < capacity; i++) {
+          int at = i * RECORD_BYTES;
+          int tag = segment.getInt(at);
+          int denomination = segment.getInt(at + 4);
+          int quantity = segment.getInt(at + 8);
+          int kind = tag & ~LAST;
+          if ((kind != DEPOSIT && kind != WITHDRAW)
+              || segment.getInt(at + 12) != check(tag, denomination, quantity)) {
+            return end;
+          }
+          if (pending == pairs.length) {
+            pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+          }
+          pairs[pending++] = denomination;
+          pairs[pending++] = quantity;
+          if ((tag & LAST) != 0) {
+            if (machine != null && end >= from) {
+              apply(machine, kind, Arrays.copyOf(pairs, pending), start + i);
+            }
+            pending = 0;
+            end = start + i + 1;
+          }
+        }
+        next = start + capacity;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Applies one replayed operation.
+   */
+  private static void apply(TellerMachine machine, int kind, int[] pairs, long position)
+      throws IOException {
+    if (kind == DEPOSIT) {
+      machine.deposit(pairs);
+    } else if (!machine.withdraw(pairs)) {
+      throw new IOException("Journal withdrawal ending at " + position + " does not replay");
+    }
+  }
+
+  /**
+   * Lists the first positions of the segments in a directory, in ascending order.
+   */
+  private static List<Long> segments(Path directory) throws IOException {
+    List<Long> starts = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return starts;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        try {
+          starts.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not a segment
+        }
+      }
+    }
+    Collections.sort(starts);
+    return starts;
+  }
+
+  /**
+   * Returns the path of the segment starting at a position.
+   */
+  private static Path segmentPath(Path directory, long start) {
+    return directory.resolve(String.format("%020d%s", start, SUFFIX));
+  }
+
+  /**
+   * Computes the check word of a record.
+   */
+  private static int check(int tag, int denomination, int quantity) {
+    return (tag * 0x9E3779B1 ^ denomination) * 0x85EBCA6B ^ quantity ^ CHECK;
+  }
+}
@@ -0,0 +1,272 @@
+package teller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A TellerMachine decorator that makes every deposit and successful withdrawal durable, by
+ * appending it to a journal of memory-mapped segment files before returning.
+ * Each (denomination, quantity) pair costs one fixed-width record written into the mapping, with
+ * no allocation and no system call. The mapping is forced to disk once per group of operations,
+ * so the cost of an fsync is shared by the whole group; up to a group of acknowledged operations
+ * can be lost if the whole machine crashes, none if only the process does.
+ * Deposits and withdrawals are applied to the delegate first and journaled once they have taken
+ * effect, under one lock, so the journal holds them in the order they took effect and replays to
+ * the same state. Queries take the same lock, since even canWithdraw plans in the delegate's
+ * scratch buffers. A rejected deposit or failed withdrawal leaves the delegate unchanged, as
+ * TellerMachine requires, and is not journaled. If an applied operation cannot be journaled, it
+ * is in the delegate but not in the journal; the call throws and the machine refuses every later
+ * deposit and withdrawal, so the delegate never drifts further from what recovery restores.
+ * Given its denominations, the machine also writes a binary checkpoint of its counts every so
+ * many records, tagged with the journal position. Counts are read whole as longs from the
+ * machines of this package. Recovery loads the latest checkpoint, refusing one taken for other
+ * denominations, and replays only the journal after it, so it takes time bounded by the
+ * checkpoint interval rather than by the age of the journal. The previous checkpoint and the
+ * journal after it are kept as a fallback; anything older is deleted.
+ */
+public class JournaledTellerMachine implements TellerMachine, Closeable {
+
+  // The machine holding the notes.
+  private final TellerMachine delegate;
+
+  // The denominations counted by checkpoints, null if the machine does not checkpoint.
+  private final DenominationSet set;
+
+  // The directory holding the journal and checkpoints.
+  private final Path directory;
+
+  // Where operations are journaled, guarded by this.
+  private final Journal journal;
+
+  // Records journaled between checkpoints, 0 to checkpoint only when asked.
+  private final long checkpointEvery;
+
+  // Journal position of the last checkpoint, guarded by this.
+  private long checkpointed;
+
+  // True once an applied operation could not be journaled, guarded by this.
+  private boolean failed;
+
+  /**
+   * Wraps a machine, journaling into a directory without checkpointing. The latest checkpoint
+   * already in the directory, if any, and the operations journaled after it are replayed onto
+   * the machine first, so an empty machine wrapped around an existing journal recovers the state
+   * it was left in.
+   * @param delegate the machine to journal, in the state the journal starts from.
+   * @param directory the directory holding the journal segments, created if needed.
+   * @param segmentRecords the number of records, one per (denomination, quantity) pair, in each
+   *                       segment file.
+   * @param syncEvery the number of operations committed to disk by one fsync, 1 to sync every
+   *                  operation before it returns, or 0 to sync only when {@link #sync()} is
+   *                  called.
+   * @throws IOException if the journal cannot be read or created.
+   * @throws IllegalArgumentException if 'segmentRecords' is not positive or 'syncEvery' is
+   *                                  negative.
+   */
+  public JournaledTellerMachine(TellerMachine delegate, Path directory, int segmentRecords,
+                                int syncEvery) throws IOException {
+    this(delegate, null, directory, segmentRecords, syncEvery, 0);
+  }
+
+  /**
+   * Wraps a machine, journaling into a directory and checkpointing its counts. The latest
+   * checkpoint in the directory is deposited into the machine, which must be empty, and the
+   * journal after it is replayed.
+   * @param delegate an empty machine to journal.
+   * @param denominations the denominations supported by the machine, counted by checkpoints.
+   * @param directory the directory holding the journal segments and checkpoints, created if
+   *                  needed.
+   * @param segmentRecords the number of records, one per (denomination, quantity) pair, in each
+   *                       segment file.
+   * @param syncEvery the number of operations committed to disk by one fsync, 1 to sync every
+   *                  operation before it returns, or 0 to sync only when {@link #sync()} is
+   *                  called.
+   * @param checkpointEvery the number of records journaled between checkpoints, or 0 to
+   *                        checkpoint only when {@link #checkpoint()} is called.
+   * @throws IOException if the journal or checkpoints cannot be read or created, or the latest
+   *                     checkpoint is for other denominations.
+   * @throws IllegalArgumentException if 'segmentRecords' is not positive, or 'syncEvery' or
+   *                                  'checkpointEvery' is negative.
+   */
+  public JournaledTellerMachine(TellerMachine delegate, DenominationSet denominations,
+                                Path directory, int segmentRecords, int syncEvery,
+                                long checkpointEvery) throws IOException {
+    if (checkpointEvery < 0) {
+      throw new IllegalArgumentException("Checkpoint interval cannot be negative");
+    }
+    this.delegate = delegate;
+    this.set = denominations;
+    this.directory = directory;
+    this.checkpointEvery = checkpointEvery;
+
+    // Loads the latest checkpoint, then replays the journal after it
+    Checkpoint checkpoint = Checkpoint.latest(directory);
+    if (checkpoint != null && set != null
+        && !Arrays.equals(checkpoint.denominations, set.values)) {
+      throw new IOException("Checkpoint at " + checkpoint.position + " is for denominations "
+          + Arrays.toString(checkpoint.denominations) + ", not " + set);
+    }
+    if (checkpoint != null) {
+      for (int i = 0; i < checkpoint.denominations.length; i++) {
+        for (long left = checkpoint.counts[i]; left > 0; left -= Integer.MAX_VALUE) {
+          delegate.deposit(checkpoint.denominations[i], (int) Math.min(left, Integer.MAX_VALUE));
+        }
+      }
+      checkpointed = checkpoint.position;
+    }
+    this.journal = Journal.open(directory, checkpointed, delegate, segmentRecords, syncEvery);
+  }
+
+  /**
+   * Deposits into the delegate and journals the deposit.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the delegate rejects the deposit; nothing is added or
+   *                                  journaled.
+   * @throws UncheckedIOException if the journal cannot be written; the deposit was added.
+   * @throws IllegalStateException if an earlier operation could not be journaled.
+   */
+  @Override
+  public synchronized void deposit(int... deposit) throws IllegalArgumentException {
+    checkJournal();
+    delegate.deposit(deposit);
+    if (deposit != null && deposit.length > 0) {
+      append(Journal.DEPOSIT, deposit);
+    }
+  }
+
+  /**
+   * Withdraws from the delegate and journals the withdrawal if it succeeded.
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   * @throws UncheckedIOException if the journal cannot be written; the withdrawal was served.
+   * @throws IllegalStateException if an earlier operation could not be journaled.
+   */
+  @Override
+  public synchronized boolean withdraw(int... request) {
+    checkJournal();
+    if (!delegate.withdraw(request)) {
+      return false;
+    }
+    if (request != null && request.length > 0) {
+      append(Journal.WITHDRAW, request);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean canWithdraw(int... request) {
+    return delegate.canWithdraw(request);
+  }
+
+  @Override
+  public synchronized int getQuantity(int denomination) {
+    return delegate.getQuantity(denomination);
+  }
+
+  @Override
+  public synchronized long getTotalValue() {
+    return delegate.getTotalValue();
+  }
+
+  /**
+   * Returns the position of the journal, which grows by one for every (denomination, quantity)
+   * pair journaled.
+   * @return the number of records in the journal.
+   */
+  public synchronized long position() {
+    return journal.position();
+  }
+
+  /**
+   * Forces every operation journaled so far to disk.
+   * @throws IOException if the journal cannot be forced.
+   */
+  public synchronized void sync() throws IOException {
+    journal.sync();
+  }
+
+  /**
+   * Writes a checkpoint of the counts at the current journal position. The journal is forced to
+   * disk first, so it always reaches the position of a checkpoint. Checkpoints and segments
+   * older than the previous checkpoint are deleted.
+   * @throws IOException if the journal cannot be forced or the checkpoint cannot be written.
+   * @throws IllegalStateException if the machine was built without its denominations, or a
+   *                               count of a delegate that only reports int quantities may be
+   *                               above Integer.MAX_VALUE.
+   */
+  public synchronized void checkpoint() throws IOException {
+    if (set == null) {
+      throw new IllegalStateException("Checkpoints need the denominations of the machine");
+    }
+    journal.sync();
+    long[] counts = new long[set.size()];
+    readCounts(counts);
+    long previous = checkpointed;
+    checkpointed = journal.position();
+    Checkpoint.write(directory, checkpointed, set, counts);
+    Checkpoint.deleteBefore(directory, previous);
+    journal.deleteBefore(previous);
+  }
+
+  /**
+   * Forces the journal to disk and closes it. The delegate stays usable on its own.
+   * @throws IOException if the journal cannot be forced or closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    journal.close();
+  }
+
+  /**
+   * Reads the whole counts of the delegate. The machines of this package are read as longs;
+   * any other delegate only reports int quantities, so a saturated one cannot be checkpointed.
+   */
+  private void readCounts(long[] counts) {
+    if (delegate instanceof LimitedTellerMachine) {
+      ((LimitedTellerMachine) delegate).readCounts(set, counts);
+    } else if (delegate instanceof ConcurrentTellerMachine) {
+      ((ConcurrentTellerMachine) delegate).readCounts(set, counts);
+    } else if (delegate instanceof SnapshotTellerMachine) {
+      ((SnapshotTellerMachine) delegate).readCounts(set, counts);
+    } else {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = delegate.getQuantity(set.values[i]);
+        if (counts[i] == Integer.MAX_VALUE) {
+          throw new IllegalStateException("Count of " + set.values[i] + " may be above "
+              + Integer.MAX_VALUE + " and cannot be checkpointed");
+        }
+      }
+    }
+  }
+
+  /**
+   * Refuses to change the delegate once it holds an operation the journal does not.
+   */
+  private void checkJournal() {
+    if (failed) {
+      throw new IllegalStateException("An earlier operation could not be journaled");
+    }
+  }
+
+  /**
+   * Appends one applied operation to the journal, checkpointing if the interval has passed.
+   */
+  private void append(int kind, int[] pairs) {
+    try {
+      journal.append(kind, pairs);
+    } catch (IOException e) {
+      failed = true;
+      throw new UncheckedIOException(e);
+    }
+    try {
+      if (checkpointEvery > 0 && journal.position() - checkpointed >= checkpointEvery) {
+        checkpoint();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package teller;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, in a fixed number of buckets.
+ * Latencies below 8 ns get a bucket each. Above that, every power of two is split into 8 buckets,
+ * so a recorded latency is known to within 12.5% however large it is. Recording is one atomic
+ * increment and never allocates; reading while other threads record gives a close, not an exact,
+ * picture.
+ */
+public final class LatencyHistogram {
+
+  // Buckets per power of two, as a number of bits.
+  private static final int SUB_BITS = 3;
+  private static final int SUB = 1 << SUB_BITS;
+
+  // Enough buckets for every non-negative long.
+  static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+  // Number of latencies recorded in each bucket.
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Records one latency.
+   * @param nanos the latency in nanoseconds, negative values counted as 0.
+   */
+  public void record(long nanos) {
+    buckets.incrementAndGet(bucket(Math.max(nanos, 0)));
+  }
+
+  /**
+   * Returns the number of latencies recorded.
+   * @return the number of latencies.
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns a latency that the given fraction of recorded latencies do not exceed.
+   * @param fraction the fraction, between 0 and 1, for example 0.99 for the 99th percentile.
+   * @return the upper bound of the bucket holding that percentile, or 0 if nothing was recorded.
+   * @throws IllegalArgumentException if the fraction is not between 0 and 1.
+   */
+  public long percentile(double fraction) throws IllegalArgumentException {
+    if (!(fraction >= 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("Fraction must be between 0 and 1");
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count()));
+    long seen = 0;
+    int last = -1;
+    for (int i = 0; i < BUCKETS; i++) {
+      long n = buckets.get(i);
+      if (n > 0) {
+        last = i;
+        seen += n;
+        if (seen >= rank) {
+          return upperBound(i);
+        }
+      }
+    }
+    return last < 0 ? 0 : upperBound(last);
+  }
+
+  /**
+   * Returns the bucket of a latency.
+   * @param nanos a non-negative latency.
+   * @return the bucket index.
+   */
+  static int bucket(long nanos) {
+    if (nanos < SUB) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    return (exponent - SUB_BITS + 1) * SUB + (int) ((nanos >>> (exponent - SUB_BITS)) & (SUB - 1));
+  }
+
+  /**
+   * Returns the largest latency falling into a bucket.
+   * @param bucket the bucket index.
+   * @return the largest latency in the bucket.
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB) {
+      return bucket;
+    }
+    int group = bucket / SUB;
+    long lower = (long) (SUB + bucket % SUB) << (group - 1);
+    return lower + (1L << (group - 1)) - 1;
+  }
+}
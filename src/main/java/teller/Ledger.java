@@ -0,0 +1,142 @@
+package teller;
+
+/**
+ * The counts of one set of denominations, with the rules every ledger follows: a deposit is
+ * validated as a whole before it is added, and a withdrawal is planned on a scratch copy and only
+ * then committed, so neither leaves the ledger half changed.
+ * The counts live at an offset of an array that may hold other ledgers too, which lets a
+ * multi-currency machine keep every currency in one flat array. A ledger keeps its own scratch
+ * arrays, so once it has warmed up its calls allocate nothing. It is not thread safe.
+ */
+final class Ledger {
+
+  // Supported denominations and their lookup tables.
+  final DenominationSet set;
+
+  // How bigger notes are chosen for breaking.
+  private final BreakDownStrategy strategy;
+
+  // The array holding the counts, and the index of the count of slot 0 in it.
+  final long[] notes;
+  final int offset;
+
+  // Total value of the notes, kept up to date by deposit and commit.
+  long total;
+
+  // Scratch buffer used to aggregate the requested quantity per slot.
+  final long[] requested;
+
+  // Scratch copy of the counts that a withdrawal is planned against before it is committed.
+  private final long[] plan;
+
+  // Total value of the request last planned.
+  long planned;
+
+  // Scratch buffers used while breaking notes down to produce a shortfall, holding the notes
+  // broken and produced by the last plan.
+  final ChangeBuffers buffers;
+
+  /**
+   * Creates an empty ledger over part of an array.
+   * @param denominations the supported denominations.
+   * @param strategy how bigger notes are chosen for breaking when a denomination runs short.
+   * @param notes the array holding the counts, zero from 'offset' for one entry per slot.
+   * @param offset the index of the count of slot 0.
+   */
+  Ledger(DenominationSet denominations, BreakDownStrategy strategy, long[] notes, int offset) {
+    this.set = denominations;
+    this.strategy = strategy;
+    this.notes = notes;
+    this.offset = offset;
+    requested = new long[set.size()];
+    plan = new long[set.size()];
+    buffers = new ChangeBuffers(set.size());
+  }
+
+  /**
+   * Validates every pair of a deposit, then adds them all.
+   * @param deposit an even number of integers, or null or empty to do nothing.
+   * @throws IllegalArgumentException if the number of parameters is odd,
+   *         if any denomination is unsupported, or if any quantity is negative.
+   */
+  void deposit(int[] deposit) throws IllegalArgumentException {
+    // Checks if the deposit is null, if yes it returns nothing, so no change in machine
+    if (deposit == null || deposit.length == 0) {
+      return; // No action
+    }
+
+    // Checks if the deposit has pairs, if not throws exception
+    if (deposit.length % 2 != 0) {
+      throw new IllegalArgumentException("Deposit arguments must be in pairs");
+    }
+
+    // Checks that every pair is a supported denomination and a quantity before adding any
+    for (int i = 0; i < deposit.length; i += 2) {
+      if (set.slotOf(deposit[i]) < 0) {
+        throw new IllegalArgumentException("Unsupported denomination");
+      }
+      if (deposit[i + 1] < 0) {
+        throw new IllegalArgumentException("Cannot deposit a negative quantity");
+      }
+    }
+
+    // Updates the balance
+    for (int i = 0; i < deposit.length; i += 2) {
+      notes[offset + set.slotOf(deposit[i])] += deposit[i + 1];
+      total += (long) deposit[i] * deposit[i + 1];
+    }
+  }
+
+  /**
+   * Plans a withdrawal of the pairs between 'from' and 'to' in a buffer, leaving the counts
+   * untouched. The requested quantities are left in 'requested' and their value in 'planned'.
+   * @param buffer holds the pairs.
+   * @param from index of the first denomination.
+   * @param to index past the last quantity; the request is invalid at an odd distance from 'from'.
+   * @return {@link TellerMetrics.Outcome#WITHDRAWN} if the plan can be committed, otherwise why
+   *         the withdrawal would fail.
+   */
+  TellerMetrics.Outcome plan(int[] buffer, int from, int to) {
+    // Checks if the request has pairs
+    if ((to - from) % 2 != 0) {
+      return TellerMetrics.Outcome.INVALID_REQUEST;
+    }
+
+    // Requested quantities are aggregated per slot, an invalid request is rejected
+    planned = ChangeMaker.aggregate(set, buffer, from, to, requested);
+    if (planned < 0) {
+      return TellerMetrics.Outcome.INVALID_REQUEST;
+    }
+
+    // Check if enough total money is present
+    if (planned > total) {
+      return TellerMetrics.Outcome.INSUFFICIENT_TOTAL;
+    }
+
+    // Plan the whole request against a scratch copy, so a failure leaves the notes untouched
+    System.arraycopy(notes, offset, plan, 0, plan.length);
+    if (!ChangeMaker.plan(set, strategy, plan, requested, buffers)) {
+      return TellerMetrics.Outcome.NO_EXACT_CHANGE; // Cannot fulfill
+    }
+    return TellerMetrics.Outcome.WITHDRAWN;
+  }
+
+  /**
+   * Applies the withdrawal last planned successfully. Breaking notes down keeps the value, so
+   * only the request comes off the total.
+   */
+  void commit() {
+    System.arraycopy(plan, 0, notes, offset, plan.length);
+    total -= planned;
+  }
+
+  /**
+   * Returns the count of a denomination, saturated at Integer.MAX_VALUE.
+   * @param denomination the denomination.
+   * @return the count, 0 if the denomination is not supported.
+   */
+  int quantity(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : (int) Math.min(notes[offset + slot], Integer.MAX_VALUE);
+  }
+}
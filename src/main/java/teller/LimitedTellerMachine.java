@@ -1,66 +1,107 @@
 package teller;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Comparator;
+import java.util.BitSet;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * TellerMachine implementation supports only denominations 1, 5, 10, and 20.
+ * TellerMachine implementation supports only a limited set of denominations, by default 1, 5,
+ * 10, and 20.
  * LimitedTellerMachine implements TellerMachine it adjusts the shortage of requested notes if
  * there are any.
+ * The quantities are kept in a primitive array indexed by the slot of each denomination, so no
+ * call boxes or allocates.
+ * This class is not safe to share across threads, see {@link ConcurrentTellerMachine}.
+ * With -Dteller.metrics=true every deposit and withdrawal is timed and counted in
+ * {@link #metrics()}. Inventory changes can be subscribed to through {@link #changes()}, and
+ * low-stock alerts through {@link #setWatermarks(int, long, long)}. A
+ * {@link ReplenishmentPlanner} can learn the withdrawal mix inline.
  */
 public class LimitedTellerMachine implements TellerMachine {
 
-  // Supported denominations in ascending (1->5->10->20).
-  private static final int[] SuppDen = {1, 5, 10, 20};
+  // Supported denominations and their lookup tables.
+  private final DenominationSet set;
 
-  private final Map<Integer, Integer> notes;
+  // Quantity of notes held per slot, with the running total and the scratch a withdrawal is
+  // planned on.
+  private final Ledger ledger;
+
+  // The counts of the ledger, indexed by slot.
+  private final long[] notes;
+
+  // Latencies and outcomes, only recorded when TellerMetrics.ENABLED.
+  private final TellerMetrics metrics;
+
+  // Publishes inventory changes, null until someone asks for them.
+  private InventoryPublisher publisher;
+
+  // Low-stock watermarks, null until one is set.
+  private Watermarks watermarks;
+
+  // Learns the withdrawal mix, null unless set.
+  private ReplenishmentPlanner planner;
 
   /**
-   * Initialize the hashmap 'notes' to be empty.
+   * Initialize the ledger 'notes' to be empty, supporting denominations 1, 5, 10, and 20.
    */
   public LimitedTellerMachine() {
-    notes = new HashMap<>();
-    for (int d : SuppDen) {
-      notes.put(d, 0);
-    }
+    this(DenominationSet.STANDARD);
+  }
+
+  /**
+   * Initialize the ledger 'notes' to be empty, supporting the given denominations.
+   * @param denominations the supported denominations.
+   */
+  public LimitedTellerMachine(DenominationSet denominations) {
+    this(denominations, BreakDownStrategy.PRESERVE_HIGHEST);
+  }
+
+  /**
+   * Initialize the ledger 'notes' to be empty, supporting the given denominations and breaking
+   * notes down with the given strategy.
+   * @param denominations the supported denominations.
+   * @param strategy how bigger notes are chosen for breaking when a denomination runs short.
+   */
+  public LimitedTellerMachine(DenominationSet denominations, BreakDownStrategy strategy) {
+    set = denominations;
+    notes = new long[set.size()];
+    ledger = new Ledger(set, strategy, notes, 0);
+    metrics = TellerMetrics.forMachine(set);
   }
 
   /**
    * Deposit the specified pairs of (denomination, quantity).
+   * The whole deposit is validated before anything is added, so a rejected deposit adds nothing.
    * @param deposit an even number of integers.
    * @throws IllegalArgumentException if the number of parameters is odd,
    *         if any denomination is unsupported, or if any quantity is negative.
    */
   @Override
   public void deposit(int... deposit) throws IllegalArgumentException {
-    // Checks if the deposit is null, if yes it returns nothing, so no change in machine
-    if (deposit == null || deposit.length == 0) {
-      return; // No action
+    if (!TellerMetrics.ENABLED) {
+      ledger.deposit(deposit);
+    } else {
+      long start = System.nanoTime();
+      try {
+        ledger.deposit(deposit);
+      } catch (IllegalArgumentException e) {
+        metrics.recordDeposit(TellerMetrics.Outcome.DEPOSIT_REJECTED, System.nanoTime() - start);
+        throw e;
+      }
+      metrics.recordDeposit(TellerMetrics.Outcome.DEPOSITED, System.nanoTime() - start);
     }
-
-    // Checks if the deposit has pairs, if not throws exception
-    if (deposit.length % 2 != 0) {
-      throw new IllegalArgumentException("Deposit arguments must be in pairs");
+    if (publisher != null) {
+      publisher.publish(notes);
     }
-
-    // Checks if the deposit ia a supported denomination, if yes, it updates the balance
-    for (int i = 0; i < deposit.length; i += 2) {
-      int denom = deposit[i];
-      int qty   = deposit[i + 1];
-      if (isUnSupportedDenomination(denom)) {
-        throw new IllegalArgumentException("Unsupported denomination");
-      }
-      if (qty < 0) {
-        throw new IllegalArgumentException("Cannot deposit a negative quantity");
-      }
-      notes.put(denom, notes.get(denom) + qty);
+    if (watermarks != null) {
+      watermarks.check(notes);
     }
   }
 
   /**
    * Withdraw the specified pair of (denomination, quantity) from this machine.
    * Uses the bigger notes to make up for the shortage of the requested notes.
+   * The withdrawal is all-or-nothing: if it fails, the machine is left exactly as it was.
    *
    * @param request an even number of integers.
    * @return true if withdrawal is successful, false if it has failed.
@@ -72,61 +113,114 @@ public class LimitedTellerMachine implements TellerMachine {
       return true; // No action needed
     }
 
-    // Checks if the deposit has pairs, if not return false
-    if (request.length % 2 != 0) {
-      return false;
-    }
-
-    // Requested denomination and their quantities is loaded into a hashmap
-    Map<Integer, Integer> requestMap = new HashMap<>();
-    long ttlReq = 0;
-    for (int i = 0; i < request.length; i += 2) {
-      int den = request[i];
-      int qty   = request[i + 1];
+    // A request with an odd number of integers is timed and counted as invalid by the plan
+    return withdraw(request, 0, request.length);
+  }
 
-      // Validates if the request is valid, if yes it continues the loading, if not returns false
-      if (isUnSupportedDenomination(den) || qty < 0) {
-        return false;
-      }
-      requestMap.put(den, requestMap.getOrDefault(den, 0) + qty);
-      ttlReq += (long) den * qty;
+  /**
+   * Checks whether a withdrawal would succeed by planning it against a scratch copy of the notes,
+   * leaving the machine untouched.
+   * @param request an even number of integers.
+   * @return true if withdrawing the request now would succeed.
+   */
+  @Override
+  public boolean canWithdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true;
     }
+    return request.length % 2 == 0
+        && ledger.plan(request, 0, request.length) == TellerMetrics.Outcome.WITHDRAWN;
+  }
 
-    // Check if enough total money is present
-    if (ttlReq > getTotalInTeller()) {
-      return false;
+  /**
+   * Withdraw many requests from this machine in one call, in order.
+   * The requests are read in place from the buffer, so the batch allocates nothing.
+   * @param requests a flat buffer of requests, each one its number of pairs followed by that many
+   *                 (denomination, quantity) pairs.
+   * @param results receives, at the index of each request, true if it was fulfilled.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests or
+   *         'results' is shorter than the number of requests.
+   */
+  @Override
+  public int withdrawBatch(int[] requests, boolean[] results) throws IllegalArgumentException {
+    int count = ChangeMaker.countRequests(requests);
+    if (results.length < count) {
+      throw new IllegalArgumentException("Results must hold one entry per request");
     }
+    for (int r = 0, i = 0; r < count; r++, i += 1 + 2 * requests[i]) {
+      results[r] = withdraw(requests, i + 1, i + 1 + 2 * requests[i]);
+    }
+    return count;
+  }
 
-    // Process denominations from largest to smallest
-    int[] descendingRequested = requestMap.keySet().stream()
-            .sorted(Comparator.reverseOrder())
-            .mapToInt(Integer::intValue)
-            .toArray();
+  /**
+   * Withdraw many requests from this machine in one call, in order.
+   * The requests are read in place from the buffer, so the batch allocates nothing.
+   * @param requests a flat buffer of requests, each one its number of pairs followed by that many
+   *                 (denomination, quantity) pairs.
+   * @param results receives, at the index of each request, a set bit if it was fulfilled.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests.
+   */
+  @Override
+  public int withdrawBatch(int[] requests, BitSet results) throws IllegalArgumentException {
+    int count = ChangeMaker.countRequests(requests);
+    for (int r = 0, i = 0; r < count; r++, i += 1 + 2 * requests[i]) {
+      results.set(r, withdraw(requests, i + 1, i + 1 + 2 * requests[i]));
+    }
+    return count;
+  }
 
-    // Fulfill each requested denomination
-    for (int denom : descendingRequested) {
-      int needed = requestMap.get(denom);
-      // If we need zero, skip
-      if (needed == 0) {
-        continue;
-      }
+  /**
+   * Withdraw the (denomination, quantity) pairs found between 'from' and 'to' in a buffer.
+   * @param buffer holds the pairs.
+   * @param from index of the first denomination.
+   * @param to index past the last quantity.
+   * @return true if withdrawal is successful, false if it has failed.
+   */
+  private boolean withdraw(int[] buffer, int from, int to) {
+    if (!TellerMetrics.ENABLED) {
+      return attempt(buffer, from, to) == TellerMetrics.Outcome.WITHDRAWN;
+    }
+    long start = System.nanoTime();
+    TellerMetrics.Outcome outcome = attempt(buffer, from, to);
+    metrics.recordWithdraw(outcome, System.nanoTime() - start);
+    return outcome == TellerMetrics.Outcome.WITHDRAWN;
+  }
 
-      // If enough notes of requested denomination are not present, produce them
-      if (notes.get(denom) < needed) {
-        boolean success = produceDenomination(denom, needed);
-        if (!success) {
-          return false; // Cannot fulfill
-        }
+  /**
+   * Attempts to withdraw the (denomination, quantity) pairs between 'from' and 'to' in a buffer.
+   * @param buffer holds the pairs.
+   * @param from index of the first denomination.
+   * @param to index past the last quantity.
+   * @return {@link TellerMetrics.Outcome#WITHDRAWN} if the withdrawal is served, otherwise why it
+   *         failed.
+   */
+  private TellerMetrics.Outcome attempt(int[] buffer, int from, int to) {
+    TellerMetrics.Outcome outcome = ledger.plan(buffer, from, to);
+    if (outcome != TellerMetrics.Outcome.WITHDRAWN) {
+      if (planner != null && outcome != TellerMetrics.Outcome.INVALID_REQUEST) {
+        planner.record(ledger.requested, null);
       }
+      return outcome;
+    }
+    if (TellerMetrics.ENABLED) {
+      metrics.recordBroken(ledger.buffers.broken);
+    }
+    if (planner != null) {
+      planner.record(ledger.requested, ledger.buffers.produced);
+    }
 
-      // Check again if enough denominations are present
-      if (notes.get(denom) < needed) {
-        return false; // Still not enough
-      }
-      // Remove the requested quantity
-      notes.put(denom, notes.get(denom) - needed);
+    // The plan succeeded, commit it
+    ledger.commit();
+    if (publisher != null) {
+      publisher.publish(notes);
+    }
+    if (watermarks != null) {
+      watermarks.check(notes);
     }
-    return true;
+    return TellerMetrics.Outcome.WITHDRAWN;
   }
 
   /**
@@ -136,92 +230,102 @@ public class LimitedTellerMachine implements TellerMachine {
    */
   @Override
   public int getQuantity(int denomination) {
-    if (isUnSupportedDenomination(denomination)) {
-      return 0;
-    }
-    return notes.get(denomination);
+    return ledger.quantity(denomination);
   }
 
   /**
-   * Checks whether a given denomination is supported by the teller machine.
-   * @param denom The denomination to check.
-   * @return true if the denomination is supported (1, 5, 10, or 20), false otherwise.
+   * Copies the whole count of every denomination of a set, which getQuantity would saturate to an
+   * int. Used to checkpoint the ledger.
+   * @param denominations the denominations to read.
+   * @param counts receives the count per slot of 'denominations', 0 for any not supported.
    */
-  private boolean isUnSupportedDenomination(int denom) {
-    return denom != 1 && denom != 5 && denom != 10 && denom != 20;
+  void readCounts(DenominationSet denominations, long[] counts) {
+    for (int i = 0; i < counts.length; i++) {
+      int slot = set.slotOf(denominations.values[i]);
+      counts[i] = slot < 0 ? 0 : notes[slot];
+    }
   }
 
   /**
-   * Calculates the total amount of money currently available in the machine.
-   * @return total value of all notes in the machine.
+   * Returns a publisher of this machine's inventory changes. Every event carries how the count of
+   * each denomination moved and the counts after it; a subscriber that falls behind gets one
+   * event covering all it missed. Events are delivered on the common fork-join pool, and deposits
+   * and withdrawals never wait for subscribers.
+   * Like every other method, this must be called from the thread using the machine.
+   * @return the publisher, the same one on every call.
    */
-  private long getTotalInTeller() {
-    long total = 0;
-    for (int d : SuppDen) {
-      total += (long) d * notes.get(d);
+  public Flow.Publisher<InventoryEvent> changes() {
+    if (publisher == null) {
+      publisher = new InventoryPublisher(set, notes, ForkJoinPool.commonPool());
     }
-    return total;
+    return publisher;
   }
 
   /**
-   * Produce enough notes of 'denom' so that we have at least 'targetTotal' in stock,
-   * by breaking bigger denominations one at a time in a stepwise manner.
-   * @return true if produced.
+   * Sets the low and high watermarks of a denomination. Listeners are told when its count falls
+   * below 'low', and then only when it reaches 'high' again, so a count hovering around either
+   * watermark does not raise a stream of alerts. A denomination already below 'low' starts out
+   * low, without an alert.
+   * @param denomination the denomination to watch.
+   * @param low the count below which the denomination is low.
+   * @param high the count at which a low denomination is restocked, at least 'low'.
+   * @throws IllegalArgumentException if the denomination is unsupported or 'high' is below
+   *                                  'low'.
    */
-  private boolean produceDenomination(int denom, int targetTotal) {
-    // Repeatedly break bigger notes until we have at least 'targetTotal' of 'denom'
-    while (notes.get(denom) < targetTotal) {
-      boolean broken = breakOneFromNextBigger(denom);
-      if (!broken) {
-        return false;
-      }
+  public void setWatermarks(int denomination, long low, long high)
+      throws IllegalArgumentException {
+    int slot = set.slotOf(denomination);
+    if (slot < 0) {
+      throw new IllegalArgumentException("Unsupported denomination");
+    }
+    if (high < low) {
+      throw new IllegalArgumentException("High watermark cannot be below the low watermark");
     }
-    return true;
+    if (watermarks == null) {
+      watermarks = new Watermarks(set);
+    }
+    watermarks.set(slot, low, high, notes[slot]);
   }
 
   /**
-   * Break exactly ONE note from the next bigger denomination, if available.
-   * If that bigger denom is not available, recursively try to produce it from an even bigger one.
-   * @return true if we can make up for shortage from next largest denomination.
+   * Adds a listener for the low-stock alerts of this machine.
+   * @param listener called, on the thread changing the machine, when a watermark is crossed.
    */
-  private boolean breakOneFromNextBigger(int denom) {
-    // If denom=20, there's no bigger note
-    if (denom == 20) {
-      return false;
-    }
-    // The next bigger denom in 1->5->10->20
-    int bigger = getNextBiggerDenomination(denom);
-
-    // If we don't have any of 'bigger', try to produce it from an even bigger denom
-    if (notes.get(bigger) == 0) {
-      if (!breakOneFromNextBigger(bigger)) {
-        return false;
-      }
+  public void addWatermarkListener(WatermarkListener listener) {
+    if (watermarks == null) {
+      watermarks = new Watermarks(set);
     }
+    watermarks.add(listener);
+  }
 
-    // Now we should have at least 1 bigger note
-    if (notes.get(bigger) <= 0) {
-      return false; // Could not produce a bigger note
+  /**
+   * Feeds every withdrawal to a planner from now on: served ones with the notes they broke down,
+   * and failed ones as unmet demand. Invalid requests are not fed.
+   * @param planner the planner, for the denominations of this machine, or null to stop feeding.
+   * @throws IllegalArgumentException if the planner is for other denominations.
+   */
+  public void setPlanner(ReplenishmentPlanner planner) throws IllegalArgumentException {
+    if (planner != null && !planner.denominations().equals(set)) {
+      throw new IllegalArgumentException("Planner is for other denominations");
     }
+    this.planner = planner;
+  }
 
-    // Use one bigger note, break it down exactly one step
-    notes.put(bigger, notes.get(bigger) - 1);
-    int factor = bigger / denom;
-    notes.put(denom, notes.get(denom) + factor);
-
-    return true;
+  /**
+   * Returns the latencies and outcomes of this machine's operations. They are only recorded when
+   * {@link TellerMetrics#ENABLED} is true.
+   * @return the metrics of this machine.
+   */
+  public TellerMetrics metrics() {
+    return metrics;
   }
 
   /**
-   * Finds the next biggest denominations.
-   * @return the next biggest denominations.
+   * Returns the total value of the notes, kept as a running total so this is constant time.
+   * @return total value of all notes in the machine.
    */
-  private int getNextBiggerDenomination(int denom) {
-    for (int i = 0; i < SuppDen.length - 1; i++) {
-      if (SuppDen[i] == denom) {
-        return SuppDen[i + 1];
-      }
-    }
-    return -1; // Not found or denom=20
+  @Override
+  public long getTotalValue() {
+    return ledger.total;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,250 @@
+package teller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A teller machine holding notes of several currencies, each with its own denominations, whose
+ * calls name the currency they are for.
+ * Every currency's ledger lives in one flat array of counts: the slots of the first currency,
+ * then those of the second, and so on, so the count of a slot is at the offset of its currency
+ * plus the slot. A cross-currency batch of withdrawals therefore walks one array instead of a
+ * machine and its maps per currency. Each currency is a ledger over its part of the array, the
+ * same one LimitedTellerMachine keeps, with its own scratch arrays, so every call follows the
+ * rules of LimitedTellerMachine and once a currency has warmed up its calls allocate nothing.
+ * A view of one currency as a TellerMachine is returned by {@link #machine(String)}.
+ * Like LimitedTellerMachine, this machine is not thread safe.
+ */
+public class MultiCurrencyTellerMachine {
+
+  // Per currency, by index: its code, and its ledger over its part of 'notes'.
+  private final String[] codes;
+  private final Ledger[] ledgers;
+
+  // Currency indices by code.
+  private final Map<String, Integer> indices = new HashMap<>();
+
+  // The count of every slot of every currency.
+  private final long[] notes;
+
+  /**
+   * Creates an empty machine that breaks notes down preserving the highest denominations.
+   * @param currencies the denominations of each currency by code; the iteration order gives the
+   *                   currency indices used by batches.
+   * @throws IllegalArgumentException if no currency is given.
+   */
+  public MultiCurrencyTellerMachine(Map<String, DenominationSet> currencies)
+      throws IllegalArgumentException {
+    this(currencies, BreakDownStrategy.PRESERVE_HIGHEST);
+  }
+
+  /**
+   * Creates an empty machine.
+   * @param currencies the denominations of each currency by code; the iteration order gives the
+   *                   currency indices used by batches.
+   * @param strategy how notes are broken down for every currency.
+   * @throws IllegalArgumentException if no currency is given.
+   */
+  public MultiCurrencyTellerMachine(Map<String, DenominationSet> currencies,
+                                    BreakDownStrategy strategy) throws IllegalArgumentException {
+    if (currencies.isEmpty()) {
+      throw new IllegalArgumentException("At least one currency is required");
+    }
+    int count = currencies.size();
+    codes = new String[count];
+    ledgers = new Ledger[count];
+    int slots = 0;
+    for (DenominationSet set : currencies.values()) {
+      slots += set.size();
+    }
+    notes = new long[slots];
+    int c = 0;
+    int offset = 0;
+    for (Map.Entry<String, DenominationSet> e : currencies.entrySet()) {
+      codes[c] = e.getKey();
+      ledgers[c] = new Ledger(e.getValue(), strategy, notes, offset);
+      offset += e.getValue().size();
+      indices.put(e.getKey(), c);
+      c++;
+    }
+  }
+
+  /**
+   * Returns the index of a currency, as used by {@link #withdrawBatch(int[], boolean[])}.
+   * @param currency the code of the currency.
+   * @return its index, or -1 if this machine does not hold it.
+   */
+  public int currencyIndex(String currency) {
+    Integer c = indices.get(currency);
+    return c == null ? -1 : c;
+  }
+
+  /**
+   * Returns the codes of the currencies, by index.
+   * @return a copy of the codes.
+   */
+  public String[] currencies() {
+    return codes.clone();
+  }
+
+  /**
+   * Adds notes of a currency, with the rules of {@link TellerMachine#deposit(int...)}.
+   * @param currency the code of the currency.
+   * @param deposit several pairs of (denomination, quantity).
+   * @throws IllegalArgumentException if the currency is not held, the number of integers is odd,
+   *                                  any denomination is unsupported or any quantity is
+   *                                  negative. Nothing is added in that case.
+   */
+  public void deposit(String currency, int... deposit) throws IllegalArgumentException {
+    int c = currencyIndex(currency);
+    if (c < 0) {
+      throw new IllegalArgumentException("Unsupported currency " + currency);
+    }
+    ledgers[c].deposit(deposit);
+  }
+
+  /**
+   * Withdraws notes of a currency, with the rules of {@link TellerMachine#withdraw(int...)}.
+   * @param currency the code of the currency.
+   * @param request several pairs of (denomination, quantity).
+   * @return true if the request was fulfilled, false if it was not or the currency is not held.
+   */
+  public boolean withdraw(String currency, int... request) {
+    int c = currencyIndex(currency);
+    if (request == null || request.length == 0) {
+      return c >= 0;
+    }
+    return c >= 0 && withdraw(c, request, 0, request.length, true);
+  }
+
+  /**
+   * Checks whether {@link #withdraw(String, int...)} would fulfill a request right now, without
+   * changing the machine.
+   * @param currency the code of the currency.
+   * @param request several pairs of (denomination, quantity).
+   * @return true if withdrawing the request now would succeed.
+   */
+  public boolean canWithdraw(String currency, int... request) {
+    int c = currencyIndex(currency);
+    if (request == null || request.length == 0) {
+      return c >= 0;
+    }
+    return c >= 0 && withdraw(c, request, 0, request.length, false);
+  }
+
+  /**
+   * Returns the number of notes of a denomination of a currency.
+   * @param currency the code of the currency.
+   * @param denomination the denomination.
+   * @return the quantity, 0 if the currency or denomination is not held.
+   */
+  public int getQuantity(String currency, int denomination) {
+    int c = currencyIndex(currency);
+    return c < 0 ? 0 : ledgers[c].quantity(denomination);
+  }
+
+  /**
+   * Returns the total value of the notes of a currency.
+   * @param currency the code of the currency.
+   * @return the total value, 0 if the currency is not held.
+   */
+  public long getTotalValue(String currency) {
+    int c = currencyIndex(currency);
+    return c < 0 ? 0 : ledgers[c].total;
+  }
+
+  /**
+   * Withdraws many requests, of any currencies, in one pass and in order.
+   * The requests are read in place from the buffer, so the batch allocates nothing.
+   * @param requests a flat buffer of requests, each one its currency index, its number of pairs,
+   *                 and that many (denomination, quantity) pairs. For example, withdrawing 5 1s
+   *                 of currency 0 and then 2 10s of currency 1 is encoded as
+   *                 {0, 1, 1, 5, 1, 1, 10, 2}.
+   * @param results receives, at the index of each request, true if it was fulfilled. A request
+   *                for an unknown currency index is not.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests or
+   *                                  'results' is shorter than the number of requests. Nothing is
+   *                                  withdrawn in that case.
+   */
+  public int withdrawBatch(int[] requests, boolean[] results) throws IllegalArgumentException {
+    int count = 0;
+    int i = 0;
+    while (i < requests.length) {
+      if (i + 1 >= requests.length || requests[i + 1] < 0
+          || requests[i + 1] > (requests.length - i - 2) / 2) {
+        throw new IllegalArgumentException("Batch does not divide into whole requests");
+      }
+      i += 2 + 2 * requests[i + 1];
+      count++;
+    }
+    if (results.length < count) {
+      throw new IllegalArgumentException("Results must hold one entry per request");
+    }
+    for (int r = 0, j = 0; r < count; r++, j += 2 + 2 * requests[j + 1]) {
+      int c = requests[j];
+      int to = j + 2 + 2 * requests[j + 1];
+      results[r] = c >= 0 && c < ledgers.length
+          && (to == j + 2 || withdraw(c, requests, j + 2, to, true));
+    }
+    return count;
+  }
+
+  /**
+   * Returns one currency of this machine as a TellerMachine. Calls on the view change this
+   * machine.
+   * @param currency the code of the currency.
+   * @return the view.
+   * @throws IllegalArgumentException if the currency is not held.
+   */
+  public TellerMachine machine(String currency) throws IllegalArgumentException {
+    int c = currencyIndex(currency);
+    if (c < 0) {
+      throw new IllegalArgumentException("Unsupported currency " + currency);
+    }
+    return new TellerMachine() {
+      @Override
+      public void deposit(int... deposit) throws IllegalArgumentException {
+        ledgers[c].deposit(deposit);
+      }
+
+      @Override
+      public boolean withdraw(int... request) {
+        return request == null || request.length == 0
+            || MultiCurrencyTellerMachine.this.withdraw(c, request, 0, request.length, true);
+      }
+
+      @Override
+      public boolean canWithdraw(int... request) {
+        return request == null || request.length == 0
+            || MultiCurrencyTellerMachine.this.withdraw(c, request, 0, request.length, false);
+      }
+
+      @Override
+      public int getQuantity(int denomination) {
+        return ledgers[c].quantity(denomination);
+      }
+
+      @Override
+      public long getTotalValue() {
+        return ledgers[c].total;
+      }
+    };
+  }
+
+  /**
+   * Plans a withdrawal of the pairs between 'from' and 'to' in a buffer from a currency, and
+   * commits it if asked to.
+   * @return true if the withdrawal can be served.
+   */
+  private boolean withdraw(int c, int[] buffer, int from, int to, boolean commit) {
+    Ledger ledger = ledgers[c];
+    if (ledger.plan(buffer, from, to) != TellerMetrics.Outcome.WITHDRAWN) {
+      return false;
+    }
+    if (commit) {
+      ledger.commit();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,317 @@
+package teller;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A TellerMachine that can be shared across threads without locking, by funnelling every call
+ * through a preallocated ring buffer to one consumer thread that owns the delegate.
+ * A caller claims the next sequence of the ring, copies its command into the slot the sequence
+ * maps to and publishes it. The consumer applies published commands to the delegate strictly in
+ * sequence order, writes each result back into its slot and marks it complete; the caller, which
+ * has been waiting on that slot only, reads the result and hands the slot on to the caller a full
+ * turn of the ring later. The delegate is therefore only ever touched by one thread and stays hot
+ * in its cache, while callers on many cores only contend on claiming a sequence.
+ * Every slot keeps its own command buffer, and the consumer an array for every length of command,
+ * up to {@link #POOLED_INTS} integers, so once the buffers have grown no call allocates. A longer
+ * command is handed to the delegate in the caller's own array, which the caller leaves alone
+ * until the call returns, so one very long command neither grows nor pins any buffer. Waiting
+ * spins briefly, then yields, then parks for a microsecond at a time.
+ */
+public class PipelinedTellerMachine implements TellerMachine, Closeable {
+
+  /**
+   * The most integers of a command copied into the pooled buffers.
+   */
+  public static final int POOLED_INTS = 64;
+
+  // Kinds of command.
+  private static final int DEPOSIT = 0;
+  private static final int WITHDRAW = 1;
+  private static final int CAN_WITHDRAW = 2;
+  private static final int QUANTITY = 3;
+  private static final int TOTAL = 4;
+  private static final int STOP = 5;
+
+  // The machine only the consumer thread touches.
+  private final TellerMachine delegate;
+
+  // The ring, a power of two of slots, and the mask mapping a sequence to its slot.
+  private final Slot[] ring;
+  private final int mask;
+
+  // The next sequence to claim.
+  private final AtomicLong claimed = new AtomicLong();
+
+  // Applies the commands.
+  private final Thread consumer;
+
+  // Arrays of every pooled length a command has had, only touched by the consumer, since the
+  // delegate takes the pairs of a command as an array of their exact length.
+  private final int[][] exact = new int[POOLED_INTS + 1][];
+
+  // Set once close has been called; later calls are refused.
+  private volatile boolean closed;
+
+  /**
+   * Wraps a machine and starts the consumer thread.
+   * @param delegate the machine to apply commands to, which must not be used directly afterwards.
+   * @param capacity the number of slots in the ring, rounded up to a power of two; at least as
+   *                 many as the threads calling at once.
+   * @throws IllegalArgumentException if 'capacity' is not positive.
+   */
+  public PipelinedTellerMachine(TellerMachine delegate, int capacity)
+      throws IllegalArgumentException {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.delegate = delegate;
+    ring = new Slot[size];
+    mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      ring[i] = new Slot(i);
+    }
+    consumer = new Thread(this::consume, "teller-pipeline");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * Deposits through the consumer thread.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the delegate rejects the deposit.
+   * @throws IllegalStateException if the machine is closed.
+   */
+  @Override
+  public void deposit(int... deposit) throws IllegalArgumentException {
+    if (deposit == null || deposit.length == 0) {
+      return; // No action
+    }
+    call(DEPOSIT, deposit, 0);
+  }
+
+  /**
+   * Withdraws through the consumer thread.
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   * @throws IllegalStateException if the machine is closed.
+   */
+  @Override
+  public boolean withdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true; // No action needed
+    }
+    return call(WITHDRAW, request, 0) != 0;
+  }
+
+  /**
+   * Checks a withdrawal through the consumer thread, in order with every other command.
+   * @param request an even number of integers.
+   * @return true if withdrawing the request now would succeed.
+   * @throws IllegalStateException if the machine is closed.
+   */
+  @Override
+  public boolean canWithdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true;
+    }
+    return call(CAN_WITHDRAW, request, 0) != 0;
+  }
+
+  /**
+   * Reads a quantity through the consumer thread, in order with every other command.
+   * @param denomination the denomination whose quantity is requested.
+   * @return the quantity, 0 if the denomination is not supported.
+   * @throws IllegalStateException if the machine is closed.
+   */
+  @Override
+  public int getQuantity(int denomination) {
+    return (int) call(QUANTITY, null, denomination);
+  }
+
+  /**
+   * Reads the total value through the consumer thread, in order with every other command.
+   * @return total value of all notes in the machine.
+   * @throws IllegalStateException if the machine is closed.
+   */
+  @Override
+  public long getTotalValue() {
+    return call(TOTAL, null, 0);
+  }
+
+  /**
+   * Applies every command already published, then stops the consumer thread. Later calls throw
+   * IllegalStateException.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      call(STOP, null, 0);
+      try {
+        consumer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Publishes one command and waits for its result.
+   * @return the result written by the consumer.
+   */
+  private long call(int kind, int[] pairs, int argument) {
+    if (closed && kind != STOP) {
+      throw new IllegalStateException("Machine is closed");
+    }
+    long sequence = claimed.getAndIncrement();
+    Slot slot = ring[(int) (sequence & mask)];
+
+    // Waits for the caller a turn of the ring earlier to hand the slot on
+    for (int spins = 0; slot.available != sequence; spins++) {
+      if (!consumer.isAlive()) {
+        throw new IllegalStateException("Machine is closed");
+      }
+      idle(spins);
+    }
+    slot.kind = kind;
+    slot.argument = argument;
+    if (pairs != null && pairs.length > POOLED_INTS) {
+      slot.borrowed = pairs;
+    } else if (pairs != null) {
+      if (slot.pairs.length < pairs.length) {
+        slot.pairs = new int[pairs.length];
+      }
+      System.arraycopy(pairs, 0, slot.pairs, 0, pairs.length);
+      slot.length = pairs.length;
+    }
+    slot.published = sequence;
+
+    for (int spins = 0; slot.completed != sequence; spins++) {
+      if (!consumer.isAlive() && slot.completed != sequence) {
+        throw new IllegalStateException("Machine is closed");
+      }
+      idle(spins);
+    }
+    long result = slot.result;
+    RuntimeException failure = slot.failure;
+    slot.failure = null;
+    slot.borrowed = null;
+    slot.available = sequence + ring.length;
+    if (failure != null) {
+      throw failure;
+    }
+    return result;
+  }
+
+  /**
+   * The consumer loop: applies every command in sequence order until it meets STOP.
+   */
+  private void consume() {
+    for (long sequence = 0; ; sequence++) {
+      Slot slot = ring[(int) (sequence & mask)];
+      for (int spins = 0; slot.published != sequence; spins++) {
+        idle(spins);
+      }
+      boolean stop = slot.kind == STOP;
+      apply(slot);
+      slot.completed = sequence;
+      if (stop) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Applies the command of a slot to the delegate and writes its result into the slot.
+   */
+  private void apply(Slot slot) {
+    try {
+      switch (slot.kind) {
+        case DEPOSIT:
+          delegate.deposit(pairs(slot));
+          slot.result = 0;
+          break;
+        case WITHDRAW:
+          slot.result = delegate.withdraw(pairs(slot)) ? 1 : 0;
+          break;
+        case CAN_WITHDRAW:
+          slot.result = delegate.canWithdraw(pairs(slot)) ? 1 : 0;
+          break;
+        case QUANTITY:
+          slot.result = delegate.getQuantity(slot.argument);
+          break;
+        case TOTAL:
+          slot.result = delegate.getTotalValue();
+          break;
+        default:
+          slot.result = 0;
+      }
+    } catch (RuntimeException e) {
+      slot.failure = e;
+    }
+  }
+
+  /**
+   * Copies the pairs of a slot into the consumer's array of their exact length, or returns the
+   * caller's array of a long command.
+   */
+  private int[] pairs(Slot slot) {
+    if (slot.borrowed != null) {
+      return slot.borrowed;
+    }
+    if (exact[slot.length] == null) {
+      exact[slot.length] = new int[slot.length];
+    }
+    System.arraycopy(slot.pairs, 0, exact[slot.length], 0, slot.length);
+    return exact[slot.length];
+  }
+
+  /**
+   * Waits a little, longer the more often it is called in a row.
+   */
+  private static void idle(int spins) {
+    if (spins < 100) {
+      Thread.onSpinWait();
+    } else if (spins < 200) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(1000);
+    }
+  }
+
+  /**
+   * One entry of the ring. The command fields are written by the caller before it publishes the
+   * sequence, and the result fields by the consumer before it completes it; the volatile
+   * sequences order those writes.
+   */
+  private static final class Slot {
+    // The sequence that may claim this slot next, the one last published, and the one last
+    // completed.
+    volatile long available;
+    volatile long published = -1;
+    volatile long completed = -1;
+
+    int kind;
+    int argument;
+    int[] pairs = new int[8];
+    int length;
+
+    // The caller's own array of a command longer than POOLED_INTS, null otherwise.
+    int[] borrowed;
+    long result;
+    RuntimeException failure;
+
+    // Keeps neighbouring slots off the same cache line.
+    long p1, p2, p3, p4, p5, p6;
+
+    Slot(int index) {
+      available = index;
+    }
+  }
+}
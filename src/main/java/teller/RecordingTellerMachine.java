@@ -0,0 +1,130 @@
+package teller;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A TellerMachine decorator that records every deposit, withdrawal and quantity read, with its
+ * result, to a compact binary trace that {@link TraceReplayer} can replay against other
+ * implementations. Other calls are passed through unrecorded.
+ * Calls are recorded in the order they return, under one lock, so a trace of a shared machine is
+ * a valid sequential history of it. Recording is buffered; the trace is complete once the machine
+ * is closed.
+ */
+public class RecordingTellerMachine implements TellerMachine, Closeable {
+
+  private final TellerMachine delegate;
+  private final OutputStream out;
+
+  /**
+   * Wraps a machine and writes the trace header.
+   * @param delegate the machine to record, which should be empty.
+   * @param denominations the denominations of the machine.
+   * @param out receives the trace; it is closed with this machine.
+   * @throws UncheckedIOException if the header cannot be written.
+   */
+  public RecordingTellerMachine(TellerMachine delegate, DenominationSet denominations,
+                                OutputStream out) {
+    this.delegate = delegate;
+    this.out = new BufferedOutputStream(out, 1 << 16);
+    try {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        this.out.write(Trace.MAGIC >>> shift);
+      }
+      Trace.writeUnsigned(this.out, denominations.size());
+      for (int value : denominations.values) {
+        Trace.writeUnsigned(this.out, value);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Deposits into the delegate and records the deposit, accepted or not.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the delegate rejects the deposit.
+   * @throws UncheckedIOException if the trace cannot be written.
+   */
+  @Override
+  public synchronized void deposit(int... deposit) throws IllegalArgumentException {
+    try {
+      delegate.deposit(deposit);
+    } catch (IllegalArgumentException e) {
+      record(Trace.DEPOSIT, deposit, 0);
+      throw e;
+    }
+    record(Trace.DEPOSIT, deposit, 1);
+  }
+
+  /**
+   * Withdraws from the delegate and records the withdrawal.
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   * @throws UncheckedIOException if the trace cannot be written.
+   */
+  @Override
+  public synchronized boolean withdraw(int... request) {
+    boolean served = delegate.withdraw(request);
+    record(Trace.WITHDRAW, request, served ? 1 : 0);
+    return served;
+  }
+
+  @Override
+  public synchronized boolean canWithdraw(int... request) {
+    return delegate.canWithdraw(request);
+  }
+
+  /**
+   * Reads a quantity from the delegate and records it.
+   * @param denomination the denomination whose quantity is requested.
+   * @return the quantity of the denomination.
+   * @throws UncheckedIOException if the trace cannot be written.
+   */
+  @Override
+  public synchronized int getQuantity(int denomination) {
+    int quantity = delegate.getQuantity(denomination);
+    try {
+      out.write(Trace.QUANTITY);
+      Trace.writeSigned(out, denomination);
+      Trace.writeSigned(out, quantity);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return quantity;
+  }
+
+  @Override
+  public synchronized long getTotalValue() {
+    return delegate.getTotalValue();
+  }
+
+  /**
+   * Flushes the trace and closes the stream.
+   * @throws IOException if the trace cannot be written.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Writes one deposit or withdrawal.
+   */
+  private void record(int kind, int[] pairs, int result) {
+    try {
+      out.write(kind);
+      int length = pairs == null ? 0 : pairs.length;
+      Trace.writeUnsigned(out, length);
+      for (int i = 0; i < length; i++) {
+        Trace.writeSigned(out, pairs[i]);
+      }
+      out.write(result);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package teller;
+
+/**
+ * Learns the withdrawal mix of a machine from its stream of withdrawals and recommends how to
+ * spend a refill on denominations, see {@link LimitedTellerMachine#setPlanner}.
+ * For every denomination it keeps three constant-size sketches, each updated in constant time:
+ * <ul>
+ *   <li>the notes requested, by served and failed withdrawals alike, as an exponentially decayed
+ *   count, so recent demand outweighs old demand;</li>
+ *   <li>the notes that had to be produced by breaking bigger ones, decayed the same way, which
+ *   is demand the machine was short of;</li>
+ *   <li>a streaming estimate of the 95th percentile of the quantity a single request asks for.</li>
+ * </ul>
+ * Decay is by event: every withdrawal weighs 2^(1/halfLife) times the one before it. Rather than
+ * scaling every count on every event, the weight of each new event grows and counts are read
+ * divided by it, so an event only touches the denominations it names.
+ * The quantile is a frugal estimate: it steps up when a request is bigger and down when it is not,
+ * in steps sized by the recent mean request, and settles where 95% of requests are below it.
+ * A planner is owned by the thread of its machine, like the machine itself.
+ */
+public final class ReplenishmentPlanner {
+
+  // The quantile of single-request quantities kept per denomination.
+  private static final double QUANTILE = 0.95;
+
+  // Counts are rescaled once the weight of an event grows past this.
+  private static final double RESCALE = 1e100;
+
+  private final DenominationSet set;
+
+  // How much each event weighs relative to the one before it.
+  private final double growth;
+
+  // The weight of the last event; decayed counts are the sums below divided by it.
+  private double weight = 1;
+
+  // Per slot, weighted sums of the notes requested and of the notes produced by breaking down.
+  private final double[] demand;
+  private final double[] shortfall;
+
+  // Per slot, a decayed mean of the quantity of the requests naming it, and the quantile estimate.
+  private final double[] mean;
+  private final double[] peak;
+
+  // Scratch counts of a recommendation.
+  private final long[] mix;
+
+  /**
+   * Creates a planner that has seen no withdrawals.
+   * @param set the denominations of the machine.
+   * @param halfLife the number of withdrawals after which an event counts half as much.
+   * @throws IllegalArgumentException if 'halfLife' is not positive.
+   */
+  public ReplenishmentPlanner(DenominationSet set, int halfLife) throws IllegalArgumentException {
+    if (halfLife <= 0) {
+      throw new IllegalArgumentException("Half life must be positive");
+    }
+    this.set = set;
+    growth = Math.pow(2, 1.0 / halfLife);
+    demand = new double[set.size()];
+    shortfall = new double[set.size()];
+    mean = new double[set.size()];
+    peak = new double[set.size()];
+    mix = new long[set.size()];
+  }
+
+  /**
+   * Returns the denominations of the machine this planner learns from.
+   * @return the denominations.
+   */
+  public DenominationSet denominations() {
+    return set;
+  }
+
+  /**
+   * Returns the decayed number of notes of a denomination requested recently.
+   * @param denomination the denomination.
+   * @return the decayed count, 0 if the denomination is not supported.
+   */
+  public double demand(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : demand[slot] / weight;
+  }
+
+  /**
+   * Returns the decayed number of notes of a denomination that had to be produced by breaking
+   * bigger notes down.
+   * @param denomination the denomination.
+   * @return the decayed count, 0 if the denomination is not supported.
+   */
+  public double shortfall(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : shortfall[slot] / weight;
+  }
+
+  /**
+   * Returns the estimated 95th percentile of the quantity of a denomination one request asks for,
+   * among the requests asking for it.
+   * @param denomination the denomination.
+   * @return the estimate, 0 if the denomination is not supported or was never requested.
+   */
+  public double peakRequest(int denomination) {
+    int slot = set.slotOf(denomination);
+    return slot < 0 ? 0 : peak[slot];
+  }
+
+  /**
+   * Recommends how to spend a refill, as pairs ready for {@link TellerMachine#deposit(int...)}.
+   * Every requested denomination first gets enough notes for one peak request, smallest
+   * denominations first since they cannot be made by breaking others down. The rest of the value
+   * is shared in proportion to the value of the recent demand and shortfall of each denomination,
+   * and what rounding leaves over goes to the biggest notes that fit. Before any withdrawal has
+   * been seen the value is shared evenly.
+   * @param value the value of the refill.
+   * @return pairs of denomination and quantity, worth at most 'value'.
+   * @throws IllegalArgumentException if 'value' is negative.
+   */
+  public int[] recommend(long value) throws IllegalArgumentException {
+    if (value < 0) {
+      throw new IllegalArgumentException("Refill value cannot be negative");
+    }
+    long left = value;
+
+    // One peak request of every denomination in demand, smallest first
+    for (int s = 0; s < mix.length; s++) {
+      mix[s] = 0;
+      if (demand[s] > 0) {
+        long floor = Math.min((long) Math.ceil(peak[s]), left / set.values[s]);
+        mix[s] = floor;
+        left -= floor * set.values[s];
+      }
+    }
+
+    // The rest in proportion to the value demanded
+    double total = 0;
+    for (int s = 0; s < mix.length; s++) {
+      total += set.values[s] * (demand[s] + shortfall[s]);
+    }
+    long share = left;
+    for (int s = 0; s < mix.length; s++) {
+      double fraction = total > 0
+          ? set.values[s] * (demand[s] + shortfall[s]) / total : 1.0 / mix.length;
+      long notes = (long) (share * fraction) / set.values[s];
+      mix[s] += notes;
+      left -= notes * set.values[s];
+    }
+
+    // Rounding leftovers, biggest notes first
+    for (int s = mix.length - 1; s >= 0 && left > 0; s--) {
+      long notes = left / set.values[s];
+      mix[s] += notes;
+      left -= notes * set.values[s];
+    }
+
+    int count = 0;
+    for (long notes : mix) {
+      if (notes > 0) {
+        count++;
+      }
+    }
+    int[] pairs = new int[2 * count];
+    int i = 0;
+    for (int s = 0; s < mix.length; s++) {
+      if (mix[s] > 0) {
+        pairs[i++] = set.values[s];
+        pairs[i++] = (int) Math.min(mix[s], Integer.MAX_VALUE);
+      }
+    }
+    return pairs;
+  }
+
+  /**
+   * Records a withdrawal.
+   * @param requested the quantity per slot asked for.
+   * @param produced the notes produced per slot by breaking bigger ones, as left by
+   *                 ChangeMaker.plan, or null if the withdrawal failed.
+   */
+  void record(long[] requested, long[] produced) {
+    weight *= growth;
+    if (weight > RESCALE) {
+      for (int s = 0; s < demand.length; s++) {
+        demand[s] /= weight;
+        shortfall[s] /= weight;
+      }
+      weight = 1;
+    }
+    for (int s = 0; s < requested.length; s++) {
+      long quantity = requested[s];
+      if (quantity > 0) {
+        demand[s] += quantity * weight;
+        mean[s] = mean[s] == 0 ? quantity : mean[s] + (quantity - mean[s]) / 16;
+        double step = Math.max(0.5, mean[s] / 8);
+        peak[s] += quantity > peak[s] ? step * QUANTILE : -step * (1 - QUANTILE);
+        peak[s] = Math.max(0, peak[s]);
+      }
+      if (produced != null && produced[s] > 0) {
+        shortfall[s] += produced[s] * weight;
+      }
+    }
+  }
+}
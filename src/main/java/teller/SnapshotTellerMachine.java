@@ -0,0 +1,233 @@
+package teller;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TellerMachine implementation for read-mostly workloads that can be shared across threads. It
+ * supports a limited set of denominations, by default 1, 5, 10, and 20, and follows the same
+ * break-down rules as LimitedTellerMachine.
+ * The counts live in an immutable snapshot published through an AtomicReference. getQuantity
+ * reads the current snapshot and never blocks. deposit and withdraw build the next snapshot from
+ * the current one and install it with a single compareAndSet, retrying if another writer got
+ * there first.
+ */
+public class SnapshotTellerMachine implements TellerMachine {
+
+  // Supported denominations and their lookup tables.
+  private final DenominationSet set;
+
+  // How bigger notes are chosen for breaking.
+  private final BreakDownStrategy strategy;
+
+  // The published inventory, replaced as a whole on every change.
+  private final AtomicReference<Snapshot> current;
+
+  // Per-thread scratch buffers, so writers aggregate and break down without allocating.
+  private final ThreadLocal<Scratch> scratch;
+
+  /**
+   * Initialize the machine to be empty, supporting denominations 1, 5, 10, and 20.
+   */
+  public SnapshotTellerMachine() {
+    this(DenominationSet.STANDARD);
+  }
+
+  /**
+   * Initialize the machine to be empty, supporting the given denominations.
+   * @param denominations the supported denominations.
+   */
+  public SnapshotTellerMachine(DenominationSet denominations) {
+    this(denominations, BreakDownStrategy.PRESERVE_HIGHEST);
+  }
+
+  /**
+   * Initialize the machine to be empty, supporting the given denominations and breaking
+   * notes down with the given strategy.
+   * @param denominations the supported denominations.
+   * @param strategy how bigger notes are chosen for breaking when a denomination runs short.
+   */
+  public SnapshotTellerMachine(DenominationSet denominations, BreakDownStrategy strategy) {
+    set = denominations;
+    this.strategy = strategy;
+    current = new AtomicReference<>(new Snapshot(new long[set.size()], 0));
+    scratch = ThreadLocal.withInitial(() -> new Scratch(set.size()));
+  }
+
+  /**
+   * Deposit the specified pairs of (denomination, quantity).
+   * The whole deposit is validated before anything is added, and is then installed atomically.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the number of parameters is odd,
+   *         if any denomination is unsupported, or if any quantity is negative.
+   */
+  @Override
+  public void deposit(int... deposit) throws IllegalArgumentException {
+    // Checks if the deposit is null, if yes it returns nothing, so no change in machine
+    if (deposit == null || deposit.length == 0) {
+      return; // No action
+    }
+
+    // Checks if the deposit has pairs, if not throws exception
+    if (deposit.length % 2 != 0) {
+      throw new IllegalArgumentException("Deposit arguments must be in pairs");
+    }
+
+    // Validates every pair before building a snapshot
+    for (int i = 0; i < deposit.length; i += 2) {
+      if (set.slotOf(deposit[i]) < 0) {
+        throw new IllegalArgumentException("Unsupported denomination");
+      }
+      if (deposit[i + 1] < 0) {
+        throw new IllegalArgumentException("Cannot deposit a negative quantity");
+      }
+    }
+
+    // Installs the current counts plus the deposit, retrying if another writer won the race
+    Snapshot seen;
+    Snapshot next;
+    do {
+      seen = current.get();
+      long[] counts = seen.counts.clone();
+      long total = seen.total;
+      for (int i = 0; i < deposit.length; i += 2) {
+        counts[set.slotOf(deposit[i])] += deposit[i + 1];
+        total += (long) deposit[i] * deposit[i + 1];
+      }
+      next = new Snapshot(counts, total);
+    } while (!current.compareAndSet(seen, next));
+  }
+
+  /**
+   * Withdraw the specified pair of (denomination, quantity) from this machine.
+   * Uses the bigger notes to make up for the shortage of the requested notes.
+   * The withdrawal is all-or-nothing and atomic with respect to every other operation.
+   *
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   */
+  @Override
+  public boolean withdraw(int... request) {
+    // Checks if the request is null, so no change in machine
+    if (request == null || request.length == 0) {
+      return true; // No action needed
+    }
+
+    // Checks if the deposit has pairs, if not return false
+    if (request.length % 2 != 0) {
+      return false;
+    }
+
+    // Requested quantities are aggregated per slot, an invalid request is rejected
+    Scratch sc = scratch.get();
+    long ttlReq = ChangeMaker.aggregate(set, request, sc.requested);
+    if (ttlReq < 0) {
+      return false;
+    }
+
+    // Plans against the current snapshot and installs the result, retrying on a lost race
+    while (true) {
+      Snapshot seen = current.get();
+
+      // Check if enough total money is present
+      if (ttlReq > seen.total) {
+        return false;
+      }
+      long[] counts = seen.counts.clone();
+      if (!ChangeMaker.plan(set, strategy, counts, sc.requested, sc.buffers)) {
+        return false; // Cannot fulfill
+      }
+      if (current.compareAndSet(seen, new Snapshot(counts, seen.total - ttlReq))) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Checks whether a withdrawal would succeed against the current snapshot, planning it on a
+   * per-thread scratch copy of the counts.
+   * @param request an even number of integers.
+   * @return true if withdrawing the request now would succeed.
+   */
+  @Override
+  public boolean canWithdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true;
+    }
+    if (request.length % 2 != 0) {
+      return false;
+    }
+    Scratch sc = scratch.get();
+    long ttlReq = ChangeMaker.aggregate(set, request, sc.requested);
+    Snapshot seen = current.get();
+    if (ttlReq < 0 || ttlReq > seen.total) {
+      return false;
+    }
+    System.arraycopy(seen.counts, 0, sc.plan, 0, sc.plan.length);
+    return ChangeMaker.plan(set, strategy, sc.plan, sc.requested, sc.buffers);
+  }
+
+  /**
+   * Checks for numbers of denominations present
+   * @return number of denominations we have of that particular denomination
+   *         if the denomination is not supported, returns 0.
+   */
+  @Override
+  public int getQuantity(int denomination) {
+    int slot = set.slotOf(denomination);
+    if (slot < 0) {
+      return 0;
+    }
+    return (int) Math.min(current.get().counts[slot], Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the total value of the notes in the current snapshot.
+   * @return total value of all notes in the machine.
+   */
+  @Override
+  public long getTotalValue() {
+    return current.get().total;
+  }
+
+  /**
+   * Copies the count of every denomination of a set from the current snapshot, as a long.
+   * @param denominations the denominations to read.
+   * @param counts receives the count per slot of 'denominations', 0 for any not supported.
+   */
+  void readCounts(DenominationSet denominations, long[] counts) {
+    long[] seen = current.get().counts;
+    for (int i = 0; i < counts.length; i++) {
+      int slot = set.slotOf(denominations.values[i]);
+      counts[i] = slot < 0 ? 0 : seen[slot];
+    }
+  }
+
+  /**
+   * Immutable quantities per slot and their total value. The array is never changed once the
+   * snapshot is built.
+   */
+  private static final class Snapshot {
+    final long[] counts;
+    final long total;
+
+    Snapshot(long[] counts, long total) {
+      this.counts = counts;
+      this.total = total;
+    }
+  }
+
+  /**
+   * Buffers owned by a single thread while it withdraws.
+   */
+  private static final class Scratch {
+    final long[] requested;
+    final long[] plan;
+    final ChangeBuffers buffers;
+
+    Scratch(int slots) {
+      requested = new long[slots];
+      plan = new long[slots];
+      buffers = new ChangeBuffers(slots);
+    }
+  }
+}
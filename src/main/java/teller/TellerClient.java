@@ -0,0 +1,221 @@
+package teller;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.BitSet;
+
+/**
+ * A TellerMachine served by a {@link TellerServer} in another process on the same host.
+ * Each call is one request and one response over the connection. Batched withdrawals are
+ * pipelined: the requests are sent in windows of up to {@link #WINDOW} before their responses are
+ * read, so a batch costs a round trip per window rather than per request.
+ * One connection carries one call at a time; calls from several threads are serialized.
+ * Failures of the connection surface as UncheckedIOException.
+ */
+public class TellerClient implements TellerMachine, Closeable {
+
+  /**
+   * The most requests a batch sends before reading their responses, bounded so that the
+   * responses fit in the socket buffers while the client is still sending.
+   */
+  static final int WINDOW = 1024;
+
+  private final SocketChannel channel;
+  private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+  // Responses read ahead of the one being consumed.
+  private final ByteBuffer in = ByteBuffer.allocateDirect(TellerServer.RESPONSE_BYTES * WINDOW);
+
+  // Arguments of the reads.
+  private final int[] one = new int[1];
+  private final int[] none = new int[0];
+
+  /**
+   * Connects to a server on the loopback interface.
+   * @param port the port of the server.
+   * @throws IOException if the server cannot be reached.
+   */
+  public TellerClient(int port) throws IOException {
+    channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    in.limit(0);
+  }
+
+  /**
+   * Deposits on the server.
+   * @param deposit an even number of integers.
+   * @throws IllegalArgumentException if the server's machine rejects the deposit, or it carries
+   *                                  more than {@link TellerServer#MAX_INTS} integers.
+   */
+  @Override
+  public synchronized void deposit(int... deposit) throws IllegalArgumentException {
+    if (deposit == null || deposit.length == 0) {
+      return; // No action
+    }
+    call(TellerServer.DEPOSIT, deposit);
+  }
+
+  /**
+   * Withdraws on the server.
+   * @param request an even number of integers.
+   * @return true if withdrawal is successful, false if it has failed.
+   */
+  @Override
+  public synchronized boolean withdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true; // No action needed
+    }
+    return call(TellerServer.WITHDRAW, request) != 0;
+  }
+
+  @Override
+  public synchronized boolean canWithdraw(int... request) {
+    if (request == null || request.length == 0) {
+      return true;
+    }
+    return call(TellerServer.CAN_WITHDRAW, request) != 0;
+  }
+
+  @Override
+  public synchronized int getQuantity(int denomination) {
+    one[0] = denomination;
+    return (int) call(TellerServer.QUANTITY, one);
+  }
+
+  @Override
+  public synchronized long getTotalValue() {
+    return call(TellerServer.TOTAL, none);
+  }
+
+  /**
+   * Withdraws many requests, pipelined in windows of up to {@link #WINDOW} requests.
+   * @param requests a flat buffer of requests, encoded as for
+   *                 {@link TellerMachine#withdrawBatch(int[], boolean[])}.
+   * @param results receives, at the index of each request, true if it was fulfilled.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests,
+   *                                  'results' is too short, or a request is too long for the
+   *                                  protocol. Nothing is withdrawn in that case.
+   */
+  @Override
+  public synchronized int withdrawBatch(int[] requests, boolean[] results)
+      throws IllegalArgumentException {
+    int count = ChangeMaker.countRequests(requests);
+    if (results.length < count) {
+      throw new IllegalArgumentException("Results must hold one entry per request");
+    }
+    for (int r = 0, i = 0; r < count; r++, i += 1 + 2 * requests[i]) {
+      if (2 * requests[i] > TellerServer.MAX_INTS) {
+        throw new IllegalArgumentException("Request too long");
+      }
+    }
+    try {
+      int sent = 0;
+      int i = 0;
+      while (sent < count) {
+        int window = Math.min(WINDOW, count - sent);
+        for (int r = 0; r < window; r++, i += 1 + 2 * requests[i]) {
+          put(TellerServer.WITHDRAW, requests, i + 1, 2 * requests[i]);
+        }
+        TellerServer.flush(channel, out);
+        for (int r = 0; r < window; r++) {
+          results[sent + r] = response() != 0;
+        }
+        sent += window;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return count;
+  }
+
+  /**
+   * Withdraws many requests, pipelined as {@link #withdrawBatch(int[], boolean[])} does.
+   * @param requests a flat buffer of requests.
+   * @param results receives a set bit for each request fulfilled and a clear bit otherwise.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests or a
+   *                                  request is too long for the protocol.
+   */
+  @Override
+  public synchronized int withdrawBatch(int[] requests, BitSet results)
+      throws IllegalArgumentException {
+    boolean[] served = new boolean[ChangeMaker.countRequests(requests)];
+    withdrawBatch(requests, served);
+    for (int r = 0; r < served.length; r++) {
+      results.set(r, served[r]);
+    }
+    return served.length;
+  }
+
+  /**
+   * Closes the connection.
+   * @throws IOException if closing fails.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Sends one request and reads its response.
+   * @return the value of the response.
+   */
+  private long call(int op, int[] args) {
+    if (args.length > TellerServer.MAX_INTS) {
+      throw new IllegalArgumentException("Request too long");
+    }
+    try {
+      put(op, args, 0, args.length);
+      TellerServer.flush(channel, out);
+      return response();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Puts one request into the send buffer, sending what it holds first if it is full.
+   */
+  private void put(int op, int[] args, int from, int length) throws IOException {
+    if (out.remaining() < TellerServer.HEADER_BYTES + 4 * length) {
+      TellerServer.flush(channel, out);
+    }
+    out.putInt(op).putInt(length);
+    for (int i = from; i < from + length; i++) {
+      out.putInt(args[i]);
+    }
+  }
+
+  /**
+   * Reads the next response.
+   * @return its value.
+   * @throws IllegalArgumentException if the server's machine rejected the request.
+   * @throws IOException if the connection fails or the server refused the request.
+   */
+  private long response() throws IOException {
+    while (in.remaining() < TellerServer.RESPONSE_BYTES) {
+      in.compact();
+      int read = channel.read(in);
+      in.flip();
+      if (read < 0) {
+        throw new EOFException("Server closed the connection");
+      }
+    }
+    int status = in.getInt();
+    long value = in.getLong();
+    if (status == TellerServer.REJECTED) {
+      throw new IllegalArgumentException("Rejected by the server");
+    }
+    if (status != TellerServer.OK) {
+      throw new IOException("Server refused the request");
+    }
+    return value;
+  }
+}
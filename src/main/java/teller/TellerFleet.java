@@ -0,0 +1,181 @@
+package teller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routes withdrawals across a fleet of teller machines sharing one set of denominations, finding
+ * a machine that can serve a request without trying withdrawals on machines in turn.
+ * The fleet indexes the counts of every machine in a segment tree. For every slot, a leaf holds
+ * the value its machine keeps in notes of that slot or bigger, and every inner node holds the
+ * maximum of its children. A request needs, for every slot, at least the value it asks for in
+ * notes of that slot or bigger, since smaller notes never make up bigger ones. Routing walks down
+ * from the root into the first child covering that need, and confirms the leaf with the machine's
+ * own canWithdraw, so it is checked with the break-down strategy that machine will use. A
+ * subtree that turns out to hold no such machine is left for the next child, so routing is a
+ * root-to-leaf walk when the maximums of a subtree come from a machine that can serve the request,
+ * and visits every machine in the worst case. Nothing is withdrawn until a machine is known to
+ * serve the request.
+ * Deposits and withdrawals must go through the fleet, or be followed by {@link #refresh(int)},
+ * for the index to stay in step with the machines. Like LimitedTellerMachine, a fleet is meant to
+ * be used by one thread at a time.
+ */
+public class TellerFleet {
+
+  // Denominations shared by every machine.
+  private final DenominationSet set;
+
+  // The machines, by index.
+  private final List<TellerMachine> machines;
+
+  // Number of leaves in the tree, a power of two at least the number of machines.
+  private final int capacity;
+
+  // Node i holds, at i * slots + s, the largest value kept in notes of slot s or bigger by any
+  // machine below it; -1 in leaves past the last machine. Node 1 is the root.
+  private final long[] tree;
+
+  // Scratch buffers, so routing does not allocate.
+  private final long[] requested;
+  private final long[] need;
+
+  /**
+   * Builds a fleet over machines, reading their current counts.
+   * @param denominations the denominations supported by every machine.
+   * @param machines the machines, which keep their index in the fleet.
+   */
+  public TellerFleet(DenominationSet denominations, List<? extends TellerMachine> machines) {
+    this.set = denominations;
+    this.machines = new ArrayList<>(machines);
+    int slots = set.size();
+    int leaves = 1;
+    while (leaves < this.machines.size()) {
+      leaves <<= 1;
+    }
+    capacity = leaves;
+    tree = new long[2 * capacity * slots];
+    Arrays.fill(tree, -1);
+    requested = new long[slots];
+    need = new long[slots];
+    for (int m = 0; m < this.machines.size(); m++) {
+      refresh(m);
+    }
+  }
+
+  /**
+   * Returns the number of machines in the fleet.
+   * @return the number of machines.
+   */
+  public int size() {
+    return machines.size();
+  }
+
+  /**
+   * Returns a machine of the fleet. Changing it directly must be followed by
+   * {@link #refresh(int)}.
+   * @param index the index of the machine.
+   * @return the machine.
+   */
+  public TellerMachine machine(int index) {
+    return machines.get(index);
+  }
+
+  /**
+   * Finds a machine that can serve a withdrawal, without changing any machine.
+   * The walk takes logarithmic time when the first machine covering the value the request needs
+   * in every slot can serve it. Subtrees whose maximums come from different machines, and
+   * machines that cover the value but cannot make the change, send the walk back up the tree, up
+   * to visiting every machine.
+   * @param request an even number of integers, as for {@link TellerMachine#withdraw(int...)}.
+   * @return the index of the first machine found that can serve the request, or -1 if no machine
+   *         can, or the request is invalid.
+   */
+  public int route(int... request) {
+    if (machines.isEmpty()) {
+      return -1;
+    }
+    if (request == null || request.length == 0) {
+      return 0; // Every machine serves an empty request
+    }
+    if (request.length % 2 != 0 || ChangeMaker.aggregate(set, request, requested) < 0) {
+      return -1;
+    }
+
+    // The value needed in notes of every slot or bigger
+    long sum = 0;
+    for (int s = need.length - 1; s >= 0; s--) {
+      sum += requested[s] * set.values[s];
+      need[s] = sum;
+    }
+    return find(1, request);
+  }
+
+  /**
+   * Withdraws from the first machine found that can serve the request.
+   * @param request an even number of integers, as for {@link TellerMachine#withdraw(int...)}.
+   * @return the index of the machine that served the request, or -1 if no machine can.
+   */
+  public int withdraw(int... request) {
+    int m = route(request);
+    if (m < 0) {
+      return -1;
+    }
+    boolean served = machines.get(m).withdraw(request);
+    refresh(m);
+    return served ? m : -1; // Only fails if the machine was changed outside the fleet
+  }
+
+  /**
+   * Deposits into one machine of the fleet.
+   * @param index the index of the machine.
+   * @param deposit an even number of integers, as for {@link TellerMachine#deposit(int...)}.
+   * @throws IllegalArgumentException if the machine rejects the deposit.
+   */
+  public void deposit(int index, int... deposit) throws IllegalArgumentException {
+    machines.get(index).deposit(deposit);
+    refresh(index);
+  }
+
+  /**
+   * Reads the counts of a machine again and updates the index, in time logarithmic in the size
+   * of the fleet.
+   * @param index the index of the machine.
+   */
+  public void refresh(int index) {
+    int slots = set.size();
+    TellerMachine machine = machines.get(index);
+    int node = capacity + index;
+    long sum = 0;
+    for (int s = slots - 1; s >= 0; s--) {
+      sum += (long) machine.getQuantity(set.values[s]) * set.values[s];
+      tree[node * slots + s] = sum;
+    }
+    for (node >>= 1; node >= 1; node >>= 1) {
+      for (int s = 0; s < slots; s++) {
+        tree[node * slots + s] = Math.max(tree[2 * node * slots + s],
+            tree[(2 * node + 1) * slots + s]);
+      }
+    }
+  }
+
+  /**
+   * Finds the first machine below a node that serves the aggregated request.
+   */
+  private int find(int node, int[] request) {
+    int slots = need.length;
+    for (int s = 0; s < slots; s++) {
+      if (tree[node * slots + s] < need[s]) {
+        return -1;
+      }
+    }
+    if (node < capacity) {
+      int found = find(2 * node, request);
+      return found >= 0 ? found : find(2 * node + 1, request);
+    }
+
+    // Confirms the leaf with the machine itself, which plans with its own strategy
+    int m = node - capacity;
+    return machines.get(m).canWithdraw(request) ? m : -1;
+  }
+}
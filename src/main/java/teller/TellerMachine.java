@@ -1,5 +1,8 @@
 package teller;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
 /**
  * This interface represents the operations of a teller machine.
  * A teller machine contains notes/coins of specific denominations.
@@ -15,6 +18,7 @@ public interface TellerMachine {
    *                as
    *                obj.deposit(1, 10, 2, 20) or obj.deposit(new int[]{1, 10, 2, 20}).
    *                A call to this method with no parameters does nothing.
+   *                The deposit is all-or-nothing: if it is rejected, none of its pairs is added.
    * @throws IllegalArgumentException if there are an odd number of numbers specified, any
    *                                  denomination given is not supported by this teller,
    *                                  or any quantity is negative.
@@ -37,11 +41,71 @@ public interface TellerMachine {
    */
   boolean withdraw(int... request);
 
+  /**
+   * Check whether {@link #withdraw(int...)} would fulfill a request right now, without changing
+   * this teller.
+   * The request is planned with the same break-down rules as a withdrawal, against the current
+   * quantities. Once a teller has warmed up the check allocates nothing.
+   * @param request several pairs of numbers (denomination, quantity), as for
+   *                {@link #withdraw(int...)}.
+   * @return true if withdrawing the request now would succeed, false otherwise.
+   */
+  boolean canWithdraw(int... request);
+
   /**
    * Return the number of notes/coins in this teller of the specified denomination.
    * @param denomination the denomination whose quantity is requested.
    * @return the quantity of the specified denomination in this teller. If the
-   *         denomination is not supported by this teller, this method returns 0.
+   *         denomination is not supported by this teller, this method returns 0. A count
+   *         above Integer.MAX_VALUE is returned as Integer.MAX_VALUE.
    */
   int getQuantity(int denomination);
+
+  /**
+   * Return the total value of all notes/coins in this teller.
+   * @return the sum over every supported denomination of its value times its quantity.
+   */
+  long getTotalValue();
+
+  /**
+   * Withdraw many requests from this teller in one call, in order, each with the same rules as
+   * {@link #withdraw(int...)}.
+   * @param requests a flat buffer of requests. Each request is its number of pairs followed by
+   *                 that many (denomination, quantity) pairs. For example, withdrawing 5 1s and
+   *                 then 1 20 and 2 10s is encoded as {1, 1, 5, 2, 20, 1, 10, 2}.
+   * @param results receives, at the index of each request, true if it was fulfilled.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests or
+   *                                  'results' is shorter than the number of requests. Nothing
+   *                                  is withdrawn in that case.
+   */
+  default int withdrawBatch(int[] requests, boolean[] results) throws IllegalArgumentException {
+    int count = ChangeMaker.countRequests(requests);
+    if (results.length < count) {
+      throw new IllegalArgumentException("Results must hold one entry per request");
+    }
+    for (int r = 0, i = 0; r < count; r++, i += 1 + 2 * requests[i]) {
+      results[r] = withdraw(Arrays.copyOfRange(requests, i + 1, i + 1 + 2 * requests[i]));
+    }
+    return count;
+  }
+
+  /**
+   * Withdraw many requests from this teller in one call, in order, each with the same rules as
+   * {@link #withdraw(int...)}.
+   * @param requests a flat buffer of requests, encoded as for
+   *                 {@link #withdrawBatch(int[], boolean[])}.
+   * @param results receives, at the index of each request, a set bit if it was fulfilled and a
+   *                clear bit otherwise.
+   * @return the number of requests in the buffer.
+   * @throws IllegalArgumentException if the buffer does not divide into whole requests. Nothing
+   *                                  is withdrawn in that case.
+   */
+  default int withdrawBatch(int[] requests, BitSet results) throws IllegalArgumentException {
+    int count = ChangeMaker.countRequests(requests);
+    for (int r = 0, i = 0; r < count; r++, i += 1 + 2 * requests[i]) {
+      results.set(r, withdraw(Arrays.copyOfRange(requests, i + 1, i + 1 + 2 * requests[i])));
+    }
+    return count;
+  }
 }
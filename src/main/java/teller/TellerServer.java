@@ -0,0 +1,259 @@
+package teller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves one TellerMachine to many processes over a loopback socket, with a fixed-width binary
+ * protocol; {@link TellerClient} speaks it.
+ * A request is a 4-byte operation, a 4-byte count of the integers that follow, and that many
+ * 4-byte integers, all big-endian:
+ * <ul>
+ *   <li>{@link #DEPOSIT}, {@link #WITHDRAW}, {@link #CAN_WITHDRAW}: the pairs of the call;</li>
+ *   <li>{@link #QUANTITY}: the denomination;</li>
+ *   <li>{@link #TOTAL}: nothing.</li>
+ * </ul>
+ * Every request is answered, in order, by a 4-byte status and an 8-byte value: {@link #OK} with
+ * 1 or 0 for a withdrawal or check, the quantity or total value for a read and 0 for a deposit;
+ * {@link #REJECTED} if the machine threw IllegalArgumentException; or {@link #FAILED} for a
+ * request the server does not understand, after which it closes the connection.
+ * Clients may pipeline: send many requests before reading the responses. A connection is served
+ * by its own pooled thread that reads as many bytes as are ready into a direct buffer, answers
+ * every complete request in it straight from the buffer into a direct response buffer, and writes
+ * the responses in one go, so a pipelined burst costs one read and one write.
+ * The machine is called from every connection's thread at once, so it must be thread safe, such
+ * as ConcurrentTellerMachine or PipelinedTellerMachine.
+ */
+public class TellerServer implements Closeable {
+
+  /** Deposits the pairs that follow. */
+  public static final int DEPOSIT = 1;
+  /** Withdraws the pairs that follow. */
+  public static final int WITHDRAW = 2;
+  /** Checks a withdrawal of the pairs that follow. */
+  public static final int CAN_WITHDRAW = 3;
+  /** Reads the quantity of the denomination that follows. */
+  public static final int QUANTITY = 4;
+  /** Reads the total value. */
+  public static final int TOTAL = 5;
+
+  /** The request was served. */
+  public static final int OK = 0;
+  /** The machine rejected the request's arguments. */
+  public static final int REJECTED = 1;
+  /** The request was malformed; the connection is closed. */
+  public static final int FAILED = 2;
+
+  /** The most integers a request may carry. */
+  public static final int MAX_INTS = 1024;
+
+  // Bytes of a request header and of a response.
+  static final int HEADER_BYTES = 8;
+  static final int RESPONSE_BYTES = 12;
+
+  // Bytes of the buffers of a connection.
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private final TellerMachine machine;
+  private final ServerSocketChannel server;
+  private final ExecutorService connections;
+  private final Thread acceptor;
+
+  // Open connections, closed with the server.
+  private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean closed;
+
+  /**
+   * Starts serving a machine on the loopback interface.
+   * @param machine the thread-safe machine to serve.
+   * @param port the port to listen on, or 0 for any free port, see {@link #port()}.
+   * @throws IOException if the port cannot be bound.
+   */
+  public TellerServer(TellerMachine machine, int port) throws IOException {
+    this.machine = machine;
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+    connections = Executors.newCachedThreadPool(task -> {
+      Thread t = new Thread(task, "teller-connection");
+      t.setDaemon(true);
+      return t;
+    });
+    acceptor = new Thread(this::accept, "teller-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port the server listens on.
+   * @return the local port.
+   */
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Stops accepting, closes every connection and waits for the acceptor to stop. Requests being
+   * served may still reach the machine.
+   * @throws IOException if the listening socket fails to close.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    connections.shutdownNow();
+    for (SocketChannel channel : open) {
+      closeQuietly(channel);
+    }
+    try {
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The acceptor loop: hands every new connection to a thread of its own.
+   */
+  private void accept() {
+    while (!closed) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (IOException e) {
+        return; // Closed
+      }
+      try {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        open.add(channel);
+        connections.execute(() -> serve(channel));
+      } catch (IOException | RejectedExecutionException e) {
+        open.remove(channel);
+        closeQuietly(channel);
+      }
+    }
+  }
+
+  /**
+   * Serves one connection until the client closes it or sends a malformed request.
+   */
+  private void serve(SocketChannel channel) {
+    ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    // Arrays of every length a request has had, since the machine takes pairs as an exact array
+    int[][] exact = new int[MAX_INTS + 1][];
+    try {
+      while (channel.read(in) >= 0) {
+        in.flip();
+        while (in.remaining() >= HEADER_BYTES) {
+          int start = in.position();
+          int op = in.getInt(start);
+          int length = in.getInt(start + 4);
+          if (length < 0 || length > MAX_INTS) {
+            out.putInt(FAILED).putLong(0);
+            flush(channel, out);
+            return;
+          }
+          if (in.remaining() < HEADER_BYTES + 4 * length) {
+            break; // The rest of the request is still on its way
+          }
+          if (exact[length] == null) {
+            exact[length] = new int[length];
+          }
+          int[] args = exact[length];
+          for (int i = 0; i < length; i++) {
+            args[i] = in.getInt(start + HEADER_BYTES + 4 * i);
+          }
+          in.position(start + HEADER_BYTES + 4 * length);
+
+          if (out.remaining() < RESPONSE_BYTES) {
+            flush(channel, out);
+          }
+          if (!answer(op, args, out)) {
+            flush(channel, out);
+            return;
+          }
+        }
+        in.compact();
+        flush(channel, out);
+      }
+    } catch (IOException e) {
+      // The client went away
+    } finally {
+      open.remove(channel);
+      closeQuietly(channel);
+    }
+  }
+
+  /**
+   * Applies one request to the machine and puts its response.
+   * @return false if the request was malformed.
+   */
+  private boolean answer(int op, int[] args, ByteBuffer out) {
+    try {
+      switch (op) {
+        case DEPOSIT:
+          machine.deposit(args);
+          out.putInt(OK).putLong(0);
+          return true;
+        case WITHDRAW:
+          out.putInt(OK).putLong(machine.withdraw(args) ? 1 : 0);
+          return true;
+        case CAN_WITHDRAW:
+          out.putInt(OK).putLong(machine.canWithdraw(args) ? 1 : 0);
+          return true;
+        case QUANTITY:
+          if (args.length != 1) {
+            break;
+          }
+          out.putInt(OK).putLong(machine.getQuantity(args[0]));
+          return true;
+        case TOTAL:
+          out.putInt(OK).putLong(machine.getTotalValue());
+          return true;
+        default:
+          break;
+      }
+    } catch (IllegalArgumentException e) {
+      out.putInt(REJECTED).putLong(0);
+      return true;
+    }
+    out.putInt(FAILED).putLong(0);
+    return false;
+  }
+
+  /**
+   * Writes out everything put in a buffer and clears it.
+   * @throws IOException if the connection fails.
+   */
+  static void flush(SocketChannel channel, ByteBuffer out) throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+    out.clear();
+  }
+
+  /**
+   * Closes a connection, ignoring failures.
+   */
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Already gone
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package teller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The binary format of a call trace, written by RecordingTellerMachine and read by
+ * TraceReplayer.
+ * A trace starts with {@link #MAGIC} and the denominations of the machine, as a count followed by
+ * the values. Each call follows as a kind byte, its arguments and its result:
+ * <ul>
+ *   <li>{@link #DEPOSIT}: the number of integers, the integers, then 1 if it was accepted or 0 if
+ *   it threw IllegalArgumentException;</li>
+ *   <li>{@link #WITHDRAW}: the number of integers, the integers, then 1 if it succeeded or 0;</li>
+ *   <li>{@link #QUANTITY}: the denomination, then the quantity returned.</li>
+ * </ul>
+ * Numbers are variable-length: seven bits per byte, low bits first, the top bit set on every byte
+ * but the last, signed values zigzag-encoded first. Typical calls therefore take a few bytes.
+ */
+final class Trace {
+
+  // Identifies a trace, "TTR1".
+  static final int MAGIC = 0x54545231;
+
+  // Kinds of call.
+  static final int DEPOSIT = 1;
+  static final int WITHDRAW = 2;
+  static final int QUANTITY = 3;
+
+  private Trace() {
+  }
+
+  /**
+   * Writes a signed number.
+   * @param out the stream.
+   * @param value the number.
+   * @throws IOException if the stream fails.
+   */
+  static void writeSigned(OutputStream out, long value) throws IOException {
+    writeUnsigned(out, (value << 1) ^ (value >> 63));
+  }
+
+  /**
+   * Writes a number as an unsigned value.
+   * @param out the stream.
+   * @param value the number.
+   * @throws IOException if the stream fails.
+   */
+  static void writeUnsigned(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /**
+   * Reads a number written by {@link #writeSigned(OutputStream, long)}.
+   * @param in the stream.
+   * @return the number.
+   * @throws IOException if the stream fails or ends.
+   */
+  static long readSigned(InputStream in) throws IOException {
+    long value = readUnsigned(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Reads a number written by {@link #writeUnsigned(OutputStream, long)}.
+   * @param in the stream.
+   * @return the number.
+   * @throws IOException if the stream fails or ends, or the number is too long.
+   */
+  static long readUnsigned(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Trace ends inside a number");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed number in trace");
+  }
+}
@@ -0,0 +1,247 @@
+package teller;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Replays a trace written by {@link RecordingTellerMachine} against TellerMachine
+ * implementations, to measure their throughput and to check them against LimitedTellerMachine.
+ * The trace is decoded once into arrays holding every call with its arguments ready to pass, so a
+ * timed replay does nothing but make the calls. Checking is a separate, untimed replay that runs
+ * the implementation in lockstep with a fresh LimitedTellerMachine and compares the result of
+ * every call and the whole inventory after it.
+ * Every replay starts from a new, empty machine made by the supplier given; machines that are
+ * Closeable are closed afterwards.
+ */
+public final class TraceReplayer {
+
+  private final DenominationSet set;
+
+  // Per call, its kind, its arguments (the denomination alone for a quantity read) and the
+  // result recorded.
+  private final int[] kinds;
+  private final int[][] arguments;
+  private final long[] results;
+
+  // Keeps timed results alive, so the calls cannot be optimized away.
+  private volatile long sink;
+
+  private TraceReplayer(DenominationSet set, int[] kinds, int[][] arguments, long[] results) {
+    this.set = set;
+    this.kinds = kinds;
+    this.arguments = arguments;
+    this.results = results;
+  }
+
+  /**
+   * Reads a whole trace.
+   * @param in the trace, read to its end but not closed.
+   * @return a replayer of the trace.
+   * @throws IOException if the stream fails, or the trace is malformed or truncated.
+   */
+  public static TraceReplayer read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    if (data.readInt() != Trace.MAGIC) {
+      throw new IOException("Not a teller trace");
+    }
+    int[] values = new int[(int) Trace.readUnsigned(data)];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (int) Trace.readUnsigned(data);
+    }
+    DenominationSet set;
+    try {
+      set = DenominationSet.of(values);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid denominations in trace", e);
+    }
+
+    int[] kinds = new int[1024];
+    int[][] arguments = new int[1024][];
+    long[] results = new long[1024];
+    int calls = 0;
+    for (int kind = data.read(); kind >= 0; kind = data.read()) {
+      if (calls == kinds.length) {
+        kinds = Arrays.copyOf(kinds, 2 * calls);
+        arguments = Arrays.copyOf(arguments, 2 * calls);
+        results = Arrays.copyOf(results, 2 * calls);
+      }
+      int[] args;
+      long result;
+      if (kind == Trace.DEPOSIT || kind == Trace.WITHDRAW) {
+        args = new int[(int) Trace.readUnsigned(data)];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = (int) Trace.readSigned(data);
+        }
+        result = data.readUnsignedByte();
+      } else if (kind == Trace.QUANTITY) {
+        args = new int[] {(int) Trace.readSigned(data)};
+        result = Trace.readSigned(data);
+      } else {
+        throw new IOException("Unknown call kind " + kind + " in trace");
+      }
+      kinds[calls] = kind;
+      arguments[calls] = args;
+      results[calls] = result;
+      calls++;
+    }
+    return new TraceReplayer(set, Arrays.copyOf(kinds, calls), Arrays.copyOf(arguments, calls),
+        Arrays.copyOf(results, calls));
+  }
+
+  /**
+   * Returns the denominations of the machine the trace was recorded on.
+   * @return the denominations.
+   */
+  public DenominationSet denominations() {
+    return set;
+  }
+
+  /**
+   * Returns the number of calls in the trace.
+   * @return the number of calls.
+   */
+  public int calls() {
+    return kinds.length;
+  }
+
+  /**
+   * Returns the result the trace recorded for a call.
+   * @param call the index of the call.
+   * @return 1 or 0 for a deposit accepted or rejected and a withdrawal served or not, the
+   *         quantity for a quantity read.
+   */
+  public long recorded(int call) {
+    return results[call];
+  }
+
+  /**
+   * Replays the trace against fresh machines and returns the best throughput seen.
+   * @param engine makes an empty machine for every round.
+   * @param rounds the number of replays, the first of which warms the machine up.
+   * @return the calls per second of the fastest round.
+   * @throws IllegalArgumentException if 'rounds' is not positive.
+   */
+  public double throughput(Supplier<? extends TellerMachine> engine, int rounds)
+      throws IllegalArgumentException {
+    if (rounds <= 0) {
+      throw new IllegalArgumentException("Rounds must be positive");
+    }
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < rounds; r++) {
+      TellerMachine machine = engine.get();
+      long sum = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < kinds.length; i++) {
+        sum += apply(machine, kinds[i], arguments[i]);
+      }
+      best = Math.min(best, Math.max(1, System.nanoTime() - start));
+      sink = sum;
+      close(machine);
+    }
+    return kinds.length * 1e9 / best;
+  }
+
+  /**
+   * Replays the trace against a fresh machine and a fresh LimitedTellerMachine in lockstep, and
+   * describes the first call after which they differ.
+   * @param engine makes the machine to check.
+   * @return a description of the first call whose result or resulting inventory differs, or null
+   *         if the machine matches LimitedTellerMachine throughout.
+   */
+  public String firstDivergence(Supplier<? extends TellerMachine> engine) {
+    TellerMachine reference = new LimitedTellerMachine(set);
+    TellerMachine machine = engine.get();
+    try {
+      for (int i = 0; i < kinds.length; i++) {
+        long expected = apply(reference, kinds[i], arguments[i]);
+        long actual = apply(machine, kinds[i], arguments[i]);
+        if (actual != expected) {
+          return describe(i) + " returned " + actual + ", expected " + expected;
+        }
+        for (int value : set.values) {
+          int quantity = machine.getQuantity(value);
+          if (quantity != reference.getQuantity(value)) {
+            return describe(i) + " left " + quantity + " notes of " + value + ", expected "
+                + reference.getQuantity(value);
+          }
+        }
+        if (machine.getTotalValue() != reference.getTotalValue()) {
+          return describe(i) + " left a total value of " + machine.getTotalValue()
+              + ", expected " + reference.getTotalValue();
+        }
+      }
+      return null;
+    } finally {
+      close(machine);
+    }
+  }
+
+  /**
+   * Measures and checks every implementation, one line each.
+   * @param engines makers of empty machines by name, reported in iteration order.
+   * @param rounds the number of timed replays of each implementation.
+   * @return the report.
+   * @throws IllegalArgumentException if 'rounds' is not positive.
+   */
+  public String report(Map<String, ? extends Supplier<? extends TellerMachine>> engines,
+                       int rounds) throws IllegalArgumentException {
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<String, ? extends Supplier<? extends TellerMachine>> e : engines.entrySet()) {
+      String divergence = firstDivergence(e.getValue());
+      out.append(String.format(Locale.ROOT, "%-16s %,15.0f calls/s  %s%n", e.getKey(),
+          throughput(e.getValue(), rounds),
+          divergence == null ? "matches LimitedTellerMachine" : divergence));
+    }
+    return out.toString();
+  }
+
+  /**
+   * Makes one call.
+   * @return the result as recorded in a trace.
+   */
+  private static long apply(TellerMachine machine, int kind, int[] args) {
+    switch (kind) {
+      case Trace.DEPOSIT:
+        try {
+          machine.deposit(args);
+          return 1;
+        } catch (IllegalArgumentException e) {
+          return 0;
+        }
+      case Trace.WITHDRAW:
+        return machine.withdraw(args) ? 1 : 0;
+      default:
+        return machine.getQuantity(args[0]);
+    }
+  }
+
+  /**
+   * Names a call for a report.
+   */
+  private String describe(int call) {
+    String name = kinds[call] == Trace.DEPOSIT ? "deposit"
+        : kinds[call] == Trace.WITHDRAW ? "withdraw" : "getQuantity";
+    String args = Arrays.toString(arguments[call]);
+    return "call " + call + ", " + name + "(" + args.substring(1, args.length() - 1) + "),";
+  }
+
+  /**
+   * Closes a machine that needs it.
+   */
+  private static void close(TellerMachine machine) {
+    if (machine instanceof Closeable) {
+      try {
+        ((Closeable) machine).close();
+      } catch (IOException e) {
+        // Nothing was written through it that the replay needs
+      }
+    }
+  }
+}
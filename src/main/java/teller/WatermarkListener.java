@@ -0,0 +1,24 @@
+package teller;
+
+/**
+ * Receives the low-stock alerts of a teller machine, see
+ * {@link LimitedTellerMachine#setWatermarks(int, long, long)}.
+ * Callbacks run on the thread that changed the machine, after the change, so they should return
+ * quickly, for example by handing the alert to a queue.
+ */
+public interface WatermarkListener {
+
+  /**
+   * Called when the count of a denomination falls below its low watermark.
+   * @param denomination the denomination running low.
+   * @param count its count after the change.
+   */
+  void lowStock(int denomination, long count);
+
+  /**
+   * Called when the count of a denomination that was low reaches its high watermark again.
+   * @param denomination the denomination restocked.
+   * @param count its count after the change.
+   */
+  void restocked(int denomination, long count);
+}
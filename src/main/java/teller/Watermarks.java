@@ -0,0 +1,98 @@
+package teller;
+
+import java.util.Arrays;
+
+/**
+ * The low and high watermarks of a machine's denominations, and whether each is currently low.
+ * A stocked denomination turns low when its count falls below the low watermark, and a low one
+ * turns stocked again only when its count reaches the high watermark, so a count hovering around
+ * either watermark raises no more alerts.
+ * Whichever crossing a slot is waiting for is kept as one compare, count * direction < trigger:
+ * while stocked the direction is 1 and the trigger the low watermark; while low the direction is
+ * -1 and the trigger 1 - high. Slots without watermarks never fire.
+ */
+final class Watermarks {
+
+  private final DenominationSet set;
+
+  // Per slot: 1 while stocked, -1 while low, and the bound whose crossing fires.
+  private final long[] direction;
+  private final long[] trigger;
+
+  // Per slot, the watermarks as set.
+  private final long[] low;
+  private final long[] high;
+
+  private WatermarkListener[] listeners = new WatermarkListener[0];
+
+  /**
+   * Creates watermarks for a set of denominations, none of them watched.
+   * @param set the denominations.
+   */
+  Watermarks(DenominationSet set) {
+    this.set = set;
+    direction = new long[set.size()];
+    trigger = new long[set.size()];
+    low = new long[set.size()];
+    high = new long[set.size()];
+    Arrays.fill(direction, 1);
+    Arrays.fill(trigger, Long.MIN_VALUE);
+  }
+
+  /**
+   * Watches one slot. It starts low if its count is already below the low watermark, without an
+   * alert.
+   * @param slot the slot.
+   * @param lowMark the count below which the slot is low.
+   * @param highMark the count at which a low slot is stocked again.
+   * @param count the current count of the slot.
+   */
+  void set(int slot, long lowMark, long highMark, long count) {
+    low[slot] = lowMark;
+    high[slot] = highMark;
+    if (count < lowMark) {
+      direction[slot] = -1;
+      trigger[slot] = 1 - highMark;
+    } else {
+      direction[slot] = 1;
+      trigger[slot] = lowMark;
+    }
+  }
+
+  /**
+   * Adds a listener.
+   * @param listener the listener.
+   */
+  void add(WatermarkListener listener) {
+    listeners = Arrays.copyOf(listeners, listeners.length + 1);
+    listeners[listeners.length - 1] = listener;
+  }
+
+  /**
+   * Fires the crossings of the counts after a change.
+   * @param counts the count per slot.
+   */
+  void check(long[] counts) {
+    for (int s = 0; s < counts.length; s++) {
+      if (counts[s] * direction[s] < trigger[s]) {
+        cross(s, counts[s]);
+      }
+    }
+  }
+
+  /**
+   * Flips a slot between stocked and low and tells the listeners.
+   */
+  private void cross(int slot, long count) {
+    boolean nowLow = direction[slot] > 0;
+    direction[slot] = nowLow ? -1 : 1;
+    trigger[slot] = nowLow ? 1 - high[slot] : low[slot];
+    for (WatermarkListener listener : listeners) {
+      if (nowLow) {
+        listener.lowStock(set.values[slot], count);
+      } else {
+        listener.restocked(set.values[slot], count);
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the ConcurrentTellerMachine.
+ * This class checks that it behaves like LimitedTellerMachine on a single thread, and that no
+ * notes are lost or duplicated when many threads deposit and withdraw at once.
+ */
+public class ConcurrentTellerMachineTest {
+
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 20000;
+  private static final int[] DENOMINATIONS = {1, 5, 10, 20};
+
+  private ConcurrentTellerMachine atm;
+  private ExecutorService pool;
+
+  /**
+   * Sets up a new instance of the ConcurrentTellerMachine and a thread pool before each test.
+   */
+  @Before
+  public void setUp() {
+    atm = new ConcurrentTellerMachine();
+    pool = Executors.newFixedThreadPool(THREADS);
+  }
+
+  /**
+   * Shuts the thread pool down after each test.
+   */
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Tests withdrawing money by making up for shortage with the largest denomination.
+   */
+  @Test
+  public void testWithdrawWithChange() {
+    atm.deposit(1, 3, 5, 0, 10, 1, 20, 2);
+    assertTrue(atm.withdraw(1, 5, 10, 1));
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(5));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a failed withdrawal leaves the machine unchanged.
+   */
+  @Test
+  public void testFailedWithdrawLeavesMachineUnchanged() {
+    atm.deposit(1, 10, 20, 1);
+    assertFalse(atm.withdraw(20, 1, 10, 1));
+    assertEquals(10, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that an invalid deposit is rejected as a whole, without adding its valid pairs.
+   */
+  @Test
+  public void testInvalidDepositAddsNothing() {
+    try {
+      atm.deposit(1, 5, 2, 5);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(0, atm.getQuantity(1));
+    }
+  }
+
+  /**
+   * Tests that the total value is conserved while many threads deposit and withdraw random
+   * requests that break notes down.
+   */
+  @Test
+  public void testValueConservedUnderContention() throws Exception {
+    List<Callable<long[]>> tasks = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      tasks.add(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long deposited = 0;
+        long withdrawn = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+          int den = DENOMINATIONS[random.nextInt(DENOMINATIONS.length)];
+          int qty = random.nextInt(4);
+          if (random.nextBoolean()) {
+            atm.deposit(den, qty);
+            deposited += (long) den * qty;
+          } else if (atm.withdraw(den, qty)) {
+            withdrawn += (long) den * qty;
+          }
+        }
+        return new long[] {deposited, withdrawn};
+      });
+    }
+
+    long expected = 0;
+    for (Future<long[]> result : pool.invokeAll(tasks)) {
+      expected += result.get()[0] - result.get()[1];
+    }
+    long actual = 0;
+    for (int den : DENOMINATIONS) {
+      assertTrue(atm.getQuantity(den) >= 0);
+      actual += (long) den * atm.getQuantity(den);
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that the exact number of notes is conserved when threads deposit and withdraw the
+   * largest denomination, which is never broken down.
+   */
+  @Test
+  public void testNotesConservedUnderContention() throws Exception {
+    List<Callable<Long>> tasks = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      tasks.add(() -> {
+        long net = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+          atm.deposit(20, 2, 1, 1);
+          net += 2;
+          if (atm.withdraw(20, 3)) {
+            net -= 3;
+          }
+        }
+        return net;
+      });
+    }
+
+    long expected = 0;
+    for (Future<Long> result : pool.invokeAll(tasks)) {
+      expected += result.get();
+    }
+    assertEquals(expected, atm.getQuantity(20));
+    assertEquals(THREADS * OPERATIONS, atm.getQuantity(1));
+  }
+
+  /**
+   * Tests that canWithdraw agrees with withdraw without changing the machine.
+   */
+  @Test
+  public void testCanWithdraw() {
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.canWithdraw(1, 43, 10, 3));
+    assertFalse(atm.canWithdraw(20, 16));
+    assertFalse(atm.canWithdraw(3, 1));
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(15, atm.getQuantity(20));
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertFalse(atm.canWithdraw(20, 13));
+  }
+
+  /**
+   * Tests that a count above Integer.MAX_VALUE reads as Integer.MAX_VALUE rather than wrapping.
+   */
+  @Test
+  public void testQuantitySaturates() {
+    atm.deposit(20, Integer.MAX_VALUE, 20, 1);
+    assertEquals(Integer.MAX_VALUE, atm.getQuantity(20));
+    assertEquals(20L * Integer.MAX_VALUE + 20, atm.getTotalValue());
+    assertTrue(atm.withdraw(20, 2));
+    assertEquals(Integer.MAX_VALUE - 1, atm.getQuantity(20));
+  }
+}
@@ -0,0 +1,116 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for the DenominationSet.
+ * This class checks how sets are built and which sets are rejected.
+ */
+public class DenominationSetTest {
+
+  /**
+   * Tests that denominations given in any order are held in ascending slots.
+   */
+  @Test
+  public void testSlotsAreAscending() {
+    DenominationSet set = DenominationSet.of(100, 2, 50, 1, 10);
+    assertEquals(5, set.size());
+    assertEquals(1, set.denomination(0));
+    assertEquals(2, set.denomination(1));
+    assertEquals(100, set.denomination(4));
+    assertEquals(3, set.slotOf(50));
+    assertTrue(set.contains(10));
+    assertFalse(set.contains(5));
+    assertFalse(set.contains(1000));
+  }
+
+  /**
+   * Tests that the standard set holds 1, 5, 10, and 20.
+   */
+  @Test
+  public void testStandard() {
+    assertEquals(DenominationSet.of(20, 10, 5, 1), DenominationSet.STANDARD);
+    assertEquals("[1, 5, 10, 20]", DenominationSet.STANDARD.toString());
+  }
+
+  /**
+   * Tests that an empty set is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmpty() {
+    DenominationSet.of();
+  }
+
+  /**
+   * Tests that a zero denomination is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotPositive() {
+    DenominationSet.of(0, 1, 5);
+  }
+
+  /**
+   * Tests that a repeated denomination is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicate() {
+    DenominationSet.of(1, 5, 5);
+  }
+
+  /**
+   * Tests that a denomination too big for the slot table is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooBig() {
+    DenominationSet.of(1, DenominationSet.MAX_DENOMINATION * 2);
+  }
+
+  /**
+   * Tests that a set is exact only if every denomination divides the next bigger one, and that
+   * the change table pays every amount it can with the fewest notes.
+   */
+  @Test
+  public void testExactAndChange() {
+    assertTrue(DenominationSet.STANDARD.exact);
+    DenominationSet set = DenominationSet.of(10, 25);
+    assertFalse(set.exact);
+    assertEquals(-1, set.change[15]);
+    assertEquals(0, set.change[20]);
+    assertEquals(1, set.change[25]);
+    set = DenominationSet.of(1, 3, 4);
+    assertEquals(1, set.change[3]);
+    assertEquals(2, set.change[4]);
+    assertEquals(1, set.change[6]);
+    assertEquals(9, set.change.length);
+  }
+
+  /**
+   * Tests that payable agrees with a brute-force search, that pay adds notes worth exactly the
+   * amount, and that the span reaches past the Frobenius number by the biggest denomination.
+   */
+  @Test
+  public void testPayableAndSpan() {
+    assertEquals(275, DenominationSet.of(25, 60).span);
+    assertEquals(40, DenominationSet.STANDARD.span);
+    for (DenominationSet set : new DenominationSet[] {DenominationSet.of(25, 60),
+        DenominationSet.of(6, 9, 20), DenominationSet.of(10, 25), DenominationSet.of(7, 11, 13)}) {
+      boolean[] paid = new boolean[1000];
+      paid[0] = true;
+      for (int amount = 1; amount < paid.length; amount++) {
+        for (int slot = 0; slot < set.size(); slot++) {
+          paid[amount] |= amount >= set.values[slot] && paid[amount - set.values[slot]];
+        }
+        assertEquals(set + " " + amount, paid[amount], set.payable(amount));
+        if (paid[amount]) {
+          long[] counts = new long[set.size()];
+          set.pay(counts, amount);
+          assertEquals(amount, ChangeMaker.totalValue(set, counts));
+        }
+      }
+    }
+  }
+}
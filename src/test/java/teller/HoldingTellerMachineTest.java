@@ -0,0 +1,166 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the HoldingTellerMachine.
+ * This class checks that held notes are out of reach until released, and that holds expire on
+ * time, using a clock the tests move by hand.
+ */
+public class HoldingTellerMachineTest {
+
+  // The current time of the clock, in nanoseconds.
+  private long now;
+
+  private HoldingTellerMachine atm;
+
+  /**
+   * Sets up a machine with 1 ns ticks on a wheel of 8 buckets before each test.
+   */
+  @Before
+  public void setUp() {
+    now = 1000;
+    atm = new HoldingTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD, 1,
+        8, () -> now);
+    atm.deposit(1, 3, 10, 1, 20, 15);
+  }
+
+  /**
+   * Tests that held notes cannot be withdrawn, and confirming dispenses them.
+   */
+  @Test
+  public void testConfirm() {
+    long hold = atm.reserve(100, 1, 43, 10, 3);
+    assertNotEquals(HoldingTellerMachine.NO_HOLD, hold);
+    assertEquals(12, atm.getQuantity(20));
+    assertEquals(240, atm.getTotalValue());
+    assertFalse(atm.withdraw(20, 13));
+    assertTrue(atm.confirm(hold));
+    assertFalse(atm.confirm(hold));
+    assertFalse(atm.release(hold));
+    now += 1000;
+    assertEquals(0, atm.expire());
+    assertEquals(240, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that releasing puts back the notes that were taken out, not the requested ones.
+   */
+  @Test
+  public void testRelease() {
+    long hold = atm.reserve(100, 1, 43, 10, 3);
+    assertEquals(1, atm.openHolds());
+    assertTrue(atm.release(hold));
+    assertEquals(0, atm.openHolds());
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(15, atm.getQuantity(20));
+    assertEquals(313, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that an expired hold which broke a 20 leaves the 20, not its change, and that a hold
+   * whose change was taken meanwhile still puts its value back.
+   */
+  @Test
+  public void testExpiryRestoresBrokenNotes() {
+    assertTrue(atm.withdraw(1, 3, 10, 1, 20, 14));
+    long hold = atm.reserve(5, 1, 7);
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(10));
+    now += 5;
+    assertEquals(1, atm.expire());
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(20));
+    assertTrue(atm.canWithdraw(20, 1));
+
+    hold = atm.reserve(100, 1, 7);
+    assertTrue(atm.withdraw(10, 1));
+    assertTrue(atm.release(hold));
+    assertEquals(10, atm.getTotalValue());
+    assertEquals(0, atm.openHolds());
+  }
+
+  /**
+   * Tests that a request that cannot be served gets no hold and changes nothing.
+   */
+  @Test
+  public void testReserveFails() {
+    assertEquals(HoldingTellerMachine.NO_HOLD, atm.reserve(100, 20, 16));
+    assertEquals(HoldingTellerMachine.NO_HOLD, atm.reserve(100, 3, 1));
+    assertEquals(HoldingTellerMachine.NO_HOLD, atm.reserve(100));
+    assertEquals(313, atm.getTotalValue());
+    assertEquals(0, atm.openHolds());
+  }
+
+  /**
+   * Tests that holds expire once their time to live has passed, including holds living longer
+   * than one turn of the wheel, and that an expired id no longer matches a reused hold.
+   */
+  @Test
+  public void testExpiry() {
+    long shortHold = atm.reserve(3, 20, 1);
+    long longHold = atm.reserve(20, 20, 1);
+    now += 2;
+    assertEquals(0, atm.expire());
+    now += 1;
+    assertEquals(1, atm.expire());
+    assertEquals(14, atm.getQuantity(20));
+    assertFalse(atm.confirm(shortHold));
+
+    long reused = atm.reserve(100, 20, 1);
+    assertNotEquals(shortHold, reused);
+    assertFalse(atm.release(shortHold));
+    now += 16;
+    assertEquals(0, atm.expire());
+    now += 1;
+    assertEquals(1, atm.expire());
+    assertFalse(atm.confirm(longHold));
+    assertTrue(atm.confirm(reused));
+    assertEquals(14, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a hold living up to Long.MAX_VALUE nanoseconds does not expire, whether its ticks
+   * round up past the largest long or its deadline would.
+   */
+  @Test
+  public void testHugeTimeToLive() {
+    atm = new HoldingTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD, 3, 8,
+        () -> now);
+    atm.deposit(20, 15);
+    long rounded = atm.reserve(Long.MAX_VALUE, 20, 1);
+    now += 4;
+    long saturated = atm.reserve(Long.MAX_VALUE - 1, 20, 1);
+    now += 1_000_000_000_000_000L;
+    assertEquals(0, atm.expire());
+    assertEquals(2, atm.openHolds());
+    assertTrue(atm.confirm(rounded));
+    assertTrue(atm.release(saturated));
+    assertEquals(14, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a hundred thousand holds all expire after a long pause, and their notes return.
+   */
+  @Test
+  public void testManyHolds() {
+    atm.deposit(1, 100000);
+    for (int i = 0; i < 100000; i++) {
+      assertNotEquals(HoldingTellerMachine.NO_HOLD, atm.reserve(i % 50, 1, 1));
+    }
+    assertEquals(100000, atm.openHolds());
+    assertEquals(3, atm.getQuantity(1));
+    now += 1000;
+    assertEquals(100000, atm.expire());
+    assertEquals(100003, atm.getQuantity(1));
+  }
+}
@@ -0,0 +1,183 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Flow;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the InventoryPublisher.
+ * This class runs deliveries by hand, so it can check exactly when events are sent and how
+ * changes a subscriber missed are coalesced.
+ */
+public class InventoryPublisherTest {
+
+  // Deliveries scheduled by the publisher, run when the test says so.
+  private Queue<Runnable> tasks;
+
+  private InventoryPublisher publisher;
+  private List<InventoryEvent> events;
+  private List<Throwable> errors;
+  private Flow.Subscription subscription;
+
+  /**
+   * Sets up a publisher for an empty machine with the standard denominations, and subscribes a
+   * subscriber that requests nothing until the test does.
+   */
+  @Before
+  public void setUp() {
+    tasks = new ArrayDeque<>();
+    publisher = new InventoryPublisher(DenominationSet.STANDARD, new long[4], tasks::add);
+    events = new ArrayList<>();
+    errors = new ArrayList<>();
+    publisher.subscribe(new Flow.Subscriber<InventoryEvent>() {
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        subscription = s;
+      }
+
+      @Override
+      public void onNext(InventoryEvent item) {
+        events.add(item);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        errors.add(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+  }
+
+  /**
+   * Runs every scheduled delivery.
+   */
+  private void deliver() {
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+  }
+
+  /**
+   * Tests that changes published without demand are coalesced into one event once the subscriber
+   * requests one, and that nothing is scheduled while it has no demand.
+   */
+  @Test
+  public void testCoalesce() {
+    publisher.publish(new long[] {3, 0, 0, 0});
+    publisher.publish(new long[] {3, 0, 1, 0});
+    assertTrue(tasks.isEmpty());
+
+    subscription.request(1);
+    deliver();
+    assertEquals(1, events.size());
+    InventoryEvent first = events.get(0);
+    assertEquals(2, first.version());
+    assertEquals(3, first.delta(1));
+    assertEquals(1, first.delta(10));
+    assertEquals(1, first.count(10));
+    assertEquals(0, first.delta(7));
+
+    publisher.publish(new long[] {2, 0, 1, 0});
+    publisher.publish(new long[] {2, 0, 1, 0});
+    assertTrue(tasks.isEmpty());
+    subscription.request(5);
+    deliver();
+    assertEquals(2, events.size());
+    assertEquals(3, events.get(1).version());
+    assertEquals(-1, events.get(1).delta(1));
+    assertEquals(2, events.get(1).count(1));
+  }
+
+  /**
+   * Tests that every change is delivered on its own to a subscriber keeping up.
+   */
+  @Test
+  public void testEveryChange() {
+    subscription.request(Long.MAX_VALUE);
+    deliver();
+    for (int i = 1; i <= 5; i++) {
+      publisher.publish(new long[] {0, 0, 0, i});
+      deliver();
+    }
+    assertEquals(6, events.size());
+    assertEquals(0, events.get(0).version());
+    for (int i = 1; i <= 5; i++) {
+      assertEquals(1, events.get(i).delta(20));
+      assertEquals(i, events.get(i).count(20));
+    }
+  }
+
+  /**
+   * Tests that a request for no events is an error, and cancels the subscription.
+   */
+  @Test
+  public void testBadRequest() {
+    subscription.request(0);
+    deliver();
+    assertEquals(1, errors.size());
+    subscription.request(1);
+    publisher.publish(new long[] {1, 0, 0, 0});
+    deliver();
+    assertTrue(events.isEmpty());
+  }
+
+  /**
+   * Tests that a cancelled subscriber receives nothing more.
+   */
+  @Test
+  public void testCancel() {
+    subscription.request(Long.MAX_VALUE);
+    deliver();
+    subscription.cancel();
+    publisher.publish(new long[] {1, 0, 0, 0});
+    deliver();
+    assertEquals(1, events.size());
+  }
+
+  /**
+   * Tests that a subscriber requesting from onSubscribe gets nothing until onSubscribe returns,
+   * even when deliveries run on the calling thread.
+   */
+  @Test
+  public void testRequestInOnSubscribe() {
+    publisher = new InventoryPublisher(DenominationSet.STANDARD, new long[] {1, 0, 0, 0},
+        Runnable::run);
+    List<String> signals = new ArrayList<>();
+    publisher.subscribe(new Flow.Subscriber<InventoryEvent>() {
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        signals.add("subscribe");
+        s.request(2);
+        publisher.publish(new long[] {2, 0, 0, 0});
+        signals.add("subscribed");
+      }
+
+      @Override
+      public void onNext(InventoryEvent item) {
+        signals.add("next " + item.count(1));
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        signals.add("error");
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    assertEquals(List.of("subscribe", "subscribed", "next 2"), signals);
+    publisher.publish(new long[] {3, 0, 0, 0});
+    assertEquals(List.of("subscribe", "subscribed", "next 2", "next 3"), signals);
+  }
+}
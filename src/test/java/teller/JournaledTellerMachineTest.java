@@ -0,0 +1,306 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for the JournaledTellerMachine.
+ * This class checks that a fresh machine wrapped around the journal recovers the same state.
+ */
+public class JournaledTellerMachineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private JournaledTellerMachine atm;
+
+  /**
+   * Sets up a journaled LimitedTellerMachine in a new directory before each test.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.getRoot().toPath().resolve("journal");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1024, 1);
+  }
+
+  /**
+   * Closes the journal after each test.
+   */
+  @After
+  public void tearDown() throws IOException {
+    atm.close();
+  }
+
+  /**
+   * Tests that deposits and a breaking withdrawal are recovered by a new machine.
+   */
+  @Test
+  public void testRecover() throws IOException {
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertEquals(5, atm.position());
+    atm.close();
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1024, 1);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(12, atm.getQuantity(20));
+    assertEquals(5, atm.position());
+  }
+
+  /**
+   * Tests that a deposit rejected after a valid pair leaves the machine as recovery finds it.
+   */
+  @Test
+  public void testRejectedDepositRecovers() throws IOException {
+    try {
+      atm.deposit(1, 5, 3, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.position());
+    atm.close();
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1024, 1);
+    assertEquals(0, atm.getQuantity(1));
+  }
+
+  /**
+   * Tests that rejected deposits, failed withdrawals and empty calls are not journaled.
+   */
+  @Test
+  public void testFailuresNotJournaled() {
+    atm.deposit(20, 1);
+    try {
+      atm.deposit(3, 1);
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertFalse(atm.withdraw(20, 2));
+    assertTrue(atm.withdraw());
+    atm.deposit();
+    assertEquals(1, atm.position());
+  }
+
+  /**
+   * Tests that checking withdrawals from one thread while another withdraws and deposits neither
+   * loses notes nor drifts from the journal.
+   */
+  @Test
+  public void testCanWithdrawWhileWithdrawing() throws Exception {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("shared");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1 << 16, 0);
+    atm.deposit(1, 16000, 20, 1000);
+    Thread checker = new Thread(() -> {
+      for (int i = 0; i < 200000; i++) {
+        atm.canWithdraw(20, 1000);
+      }
+    });
+    checker.start();
+    for (int i = 0; i < 200000; i++) {
+      assertTrue(atm.withdraw(1, 3));
+      atm.deposit(1, 3);
+    }
+    checker.join();
+    assertEquals(36000, atm.getTotalValue());
+    assertEquals(1000, atm.getQuantity(20));
+    atm.close();
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1 << 16, 0);
+    assertEquals(36000, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that the journal rolls over into new segments and replays across them, including an
+   * operation split over two segments.
+   */
+  @Test
+  public void testRollover() throws IOException {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("small");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 3, 0);
+    for (int i = 0; i < 10; i++) {
+      atm.deposit(1, 1, 5, 1);
+    }
+    assertTrue(atm.withdraw(1, 15));
+    atm.close();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(7, files.count());
+    }
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 3, 0);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(9, atm.getQuantity(5));
+    assertEquals(21, atm.position());
+    atm.deposit(20, 1);
+    assertEquals(20 + 45, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that an operation torn by a crash is dropped as a whole, and later operations follow the
+   * last complete one.
+   */
+  @Test
+  public void testTornOperation() throws IOException {
+    atm.deposit(20, 2);
+    atm.deposit(1, 5, 10, 1);
+    atm.close();
+
+    // Corrupts the check word of the last record, the second pair of the second deposit
+    Path segment;
+    try (Stream<Path> files = Files.list(directory)) {
+      segment = files.findFirst().get();
+    }
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.seek(2 * Journal.RECORD_BYTES + 12);
+      file.writeInt(0);
+    }
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1024, 1);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(2, atm.getQuantity(20));
+    assertEquals(1, atm.position());
+    atm.deposit(5, 1);
+    atm.close();
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), directory, 1024, 1);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(5));
+    assertEquals(45, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that recovery loads the latest checkpoint and replays only the journal after it, the
+   * segments before the previous checkpoint having been deleted.
+   */
+  @Test
+  public void testCheckpointRecovery() throws IOException {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("checkpointed");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 4, 0, 10);
+    for (int i = 0; i < 100; i++) {
+      atm.deposit(20, 2);
+      assertTrue(atm.withdraw(1, 3, 5, 1));
+    }
+    atm.deposit(10, 7);
+    atm.close();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertTrue(files.filter(p -> p.toString().endsWith(".journal")).count() <= 7);
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(2, files.filter(p -> p.toString().endsWith(".checkpoint")).count());
+    }
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 4, 0, 10);
+    assertEquals(100 * 40 - 100 * 8 + 70, atm.getTotalValue());
+    assertEquals(7, atm.getQuantity(10));
+    assertEquals(301, atm.position());
+  }
+
+  /**
+   * Tests that a damaged latest checkpoint falls back to the previous one and the longer journal
+   * tail after it.
+   */
+  @Test
+  public void testDamagedCheckpoint() throws IOException {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("damaged");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    atm.deposit(1, 5, 20, 3);
+    atm.checkpoint();
+    assertTrue(atm.withdraw(20, 1));
+    atm.checkpoint();
+    atm.deposit(5, 2);
+    atm.close();
+
+    Path latest;
+    try (Stream<Path> files = Files.list(directory)) {
+      latest = files.filter(p -> p.toString().endsWith(".checkpoint")).sorted()
+          .reduce((first, second) -> second).get();
+    }
+    try (RandomAccessFile file = new RandomAccessFile(latest.toFile(), "rw")) {
+      file.seek(20);
+      file.writeLong(99);
+    }
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    assertEquals(5, atm.getQuantity(1));
+    assertEquals(2, atm.getQuantity(5));
+    assertEquals(2, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a count above Integer.MAX_VALUE is checkpointed and recovered whole.
+   */
+  @Test
+  public void testCheckpointLargeCount() throws IOException {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("large");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    atm.deposit(20, Integer.MAX_VALUE, 20, 5, 1, 3);
+    atm.checkpoint();
+    atm.close();
+
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    assertEquals(20L * Integer.MAX_VALUE + 103, atm.getTotalValue());
+    assertTrue(atm.withdraw(20, Integer.MAX_VALUE, 20, 5));
+    assertEquals(3, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that recovery refuses a checkpoint taken for other denominations.
+   */
+  @Test
+  public void testCheckpointOtherDenominations() throws IOException {
+    atm.close();
+    directory = folder.getRoot().toPath().resolve("other");
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    atm.deposit(1, 5, 20, 3);
+    atm.checkpoint();
+    atm.close();
+
+    DenominationSet other = DenominationSet.of(1, 5, 10, 50);
+    try {
+      new JournaledTellerMachine(new LimitedTellerMachine(other), other, directory, 1024, 0, 0);
+      fail("expected IOException");
+    } catch (IOException e) {
+      // The checkpoint is for 1, 5, 10, 20
+    }
+    atm = new JournaledTellerMachine(new LimitedTellerMachine(), DenominationSet.STANDARD,
+        directory, 1024, 0, 0);
+    assertEquals(65, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that a machine built without its denominations cannot checkpoint.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testCheckpointWithoutDenominations() throws IOException {
+    atm.checkpoint();
+  }
+}
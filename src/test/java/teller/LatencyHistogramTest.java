@@ -0,0 +1,66 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the LatencyHistogram.
+ * This class checks the bucket boundaries and the percentiles read back.
+ */
+public class LatencyHistogramTest {
+
+  private LatencyHistogram histogram;
+
+  /**
+   * Sets up an empty histogram before each test.
+   */
+  @Before
+  public void setUp() {
+    histogram = new LatencyHistogram();
+  }
+
+  /**
+   * Tests that every latency falls into a bucket whose bounds hold it, within 12.5%.
+   */
+  @Test
+  public void testBuckets() {
+    long[] latencies = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE};
+    for (long nanos : latencies) {
+      int bucket = LatencyHistogram.bucket(nanos);
+      assertTrue(bucket < LatencyHistogram.BUCKETS);
+      long upper = LatencyHistogram.upperBound(bucket);
+      long lower = bucket == 0 ? 0 : LatencyHistogram.upperBound(bucket - 1) + 1;
+      assertTrue(lower <= nanos && nanos <= upper);
+      assertTrue(upper - lower <= Math.max(0, lower / 8));
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+  }
+
+  /**
+   * Tests percentiles over latencies of 1 to 1000 ns.
+   */
+  @Test
+  public void testPercentile() {
+    assertEquals(0, histogram.percentile(0.5));
+    for (int nanos = 1; nanos <= 1000; nanos++) {
+      histogram.record(nanos);
+    }
+    assertEquals(1000, histogram.count());
+    assertEquals(1, histogram.percentile(0));
+    long median = histogram.percentile(0.5);
+    assertTrue(median >= 500 && median <= 500 + 500 / 8);
+    long top = histogram.percentile(1);
+    assertTrue(top >= 1000 && top <= 1000 + 1000 / 8);
+  }
+
+  /**
+   * Tests that a fraction outside 0 to 1 is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadFraction() {
+    histogram.percentile(1.5);
+  }
+}
@@ -3,6 +3,14 @@ package teller;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import java.lang.management.ManagementFactory;
+import java.util.BitSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.Before;
 
@@ -12,6 +20,12 @@ import org.junit.Before;
  */
 public class LimitedTellerMachineTest {
 
+  // Requests of the allocation test, built once so the measured calls allocate nothing.
+  private static final int[] REFILL = {20, 1};
+  private static final int[] BREAK_DOWN = {1, 20};
+  private static final int[] FAILING = {20, 2};
+  private static final int[] BATCH = {1, 1, 20, 1, 20, 1};
+
   private LimitedTellerMachine atm;
 
   /**
@@ -156,4 +170,549 @@ public class LimitedTellerMachineTest {
   public void testInvalidDepositNegativeQuantity() {
     atm.deposit(1, -5, 5, 3);
   }
+
+  /**
+   * Tests that an invalid deposit is rejected as a whole, without adding its valid pairs.
+   */
+  @Test
+  public void testInvalidDepositAddsNothing() {
+    try {
+      atm.deposit(1, 5, 3, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(0, atm.getQuantity(1));
+      assertEquals(0, atm.getTotalValue());
+    }
+  }
+
+  /**
+   * Tests that denominations outside the supported set, including negative and very large ones,
+   * report a quantity of zero and are rejected by withdraw.
+   */
+  @Test
+  public void testUnsupportedDenominationLookup() {
+    atm.deposit(1, 10, 20, 3);
+    assertEquals(0, atm.getQuantity(-5));
+    assertEquals(0, atm.getQuantity(2));
+    assertEquals(0, atm.getQuantity(100));
+    assertFalse(atm.withdraw(100, 1));
+    assertFalse(atm.withdraw(-1, 1));
+    assertEquals(10, atm.getQuantity(1));
+    assertEquals(3, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a shortage is covered by cascading through every tier, leaving the remainders
+   * of each broken note in the intermediate denominations.
+   */
+  @Test
+  public void testWithdrawCascadesThroughTiers() {
+    atm.deposit(5, 1, 20, 1);
+    assertTrue(atm.withdraw(1, 15));
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(0, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a very large shortage of 1s is produced from 20s in one step.
+   */
+  @Test
+  public void testWithdrawLargeShortfall() {
+    atm.deposit(20, 100000);
+    assertTrue(atm.withdraw(1, 999999));
+    assertEquals(1, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(50000, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a withdrawal failing on a later denomination leaves the machine unchanged,
+   * even though an earlier denomination of the same request could be served.
+   */
+  @Test
+  public void testFailedWithdrawLeavesMachineUnchanged() {
+    atm.deposit(1, 10, 20, 1);
+    assertFalse(atm.withdraw(20, 1, 10, 1));
+    assertEquals(10, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests a batch of withdrawals processed in order, including an empty, a failing and an
+   * invalid request, with the outcomes written into a boolean array.
+   */
+  @Test
+  public void testWithdrawBatch() {
+    atm.deposit(1, 5, 10, 1, 20, 1);
+    boolean[] results = new boolean[5];
+    int count = atm.withdrawBatch(new int[] {1, 1, 5, 0, 2, 20, 1, 10, 1, 1, 10, 1, 1, 2, 1},
+        results);
+    assertEquals(5, count);
+    assertTrue(results[0]);
+    assertTrue(results[1]);
+    assertTrue(results[2]);
+    assertFalse(results[3]);
+    assertFalse(results[4]);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(0, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests a batch of withdrawals with the outcomes written into a BitSet.
+   */
+  @Test
+  public void testWithdrawBatchBitSet() {
+    atm.deposit(5, 2);
+    BitSet results = new BitSet();
+    results.set(1);
+    assertEquals(3, atm.withdrawBatch(new int[] {1, 5, 1, 1, 5, 1, 1, 5, 1}, results));
+    assertTrue(results.get(0));
+    assertTrue(results.get(1));
+    assertFalse(results.get(2));
+  }
+
+  /**
+   * Tests that a batch whose last request runs past the buffer is rejected before anything is
+   * withdrawn.
+   */
+  @Test
+  public void testMalformedWithdrawBatch() {
+    atm.deposit(5, 2);
+    try {
+      atm.withdrawBatch(new int[] {1, 5, 1, 2, 5, 1}, new boolean[2]);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(2, atm.getQuantity(5));
+    }
+  }
+
+  /**
+   * Tests that deposits, withdrawals that break notes down, failing withdrawals, batches and
+   * feasibility checks allocate nothing, measured with the per-thread allocation counter of the JVM.
+   */
+  @Test
+  public void testWithdrawDoesNotAllocate() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+
+    atm.deposit(20, 1);
+    int calls = 100000;
+    boolean[] results = new boolean[2];
+
+    // Warms up every path measured, so the scratch buffers have grown and the code is compiled
+    cycle(calls, results);
+    long before = threads.getThreadAllocatedBytes(thread);
+    long overhead = threads.getThreadAllocatedBytes(thread) - before;
+    before = threads.getThreadAllocatedBytes(thread);
+    cycle(calls, results);
+    long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+    // The calls allocate nothing; the bound only leaves room for the JIT recompiling mid-loop
+    assertTrue("allocated " + allocated + " bytes", allocated <= 1024);
+    assertEquals(1, atm.getQuantity(20));
+  }
+
+  /**
+   * Runs the calls measured by {@link #testWithdrawDoesNotAllocate()}, each leaving the machine
+   * with the single 20 it started with.
+   */
+  private void cycle(int calls, boolean[] results) {
+    for (int i = 0; i < calls; i++) {
+      atm.withdraw(BREAK_DOWN);
+      atm.withdraw(FAILING);
+      atm.deposit(REFILL);
+      atm.withdrawBatch(BATCH, results);
+      atm.deposit(REFILL);
+      atm.getQuantity(20);
+      atm.canWithdraw(BREAK_DOWN);
+    }
+  }
+
+  /**
+   * Tests that a count above Integer.MAX_VALUE reads as Integer.MAX_VALUE rather than wrapping.
+   */
+  @Test
+  public void testQuantitySaturates() {
+    atm.deposit(20, Integer.MAX_VALUE, 20, 1);
+    assertEquals(Integer.MAX_VALUE, atm.getQuantity(20));
+    assertEquals(20L * Integer.MAX_VALUE + 20, atm.getTotalValue());
+    assertTrue(atm.withdraw(20, 2));
+    assertEquals(Integer.MAX_VALUE - 1, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that the total value follows deposits, break-down withdrawals and failed withdrawals.
+   */
+  @Test
+  public void testGetTotalValue() {
+    assertEquals(0, atm.getTotalValue());
+    atm.deposit(1, 3, 5, 0, 10, 1, 20, 2);
+    assertEquals(53, atm.getTotalValue());
+    assertTrue(atm.withdraw(1, 5, 10, 1));
+    assertEquals(38, atm.getTotalValue());
+    assertFalse(atm.withdraw(1, 39));
+    assertFalse(atm.withdraw(20, 1, 10, 2));
+    assertEquals(38, atm.getTotalValue());
+  }
+
+  /**
+   * Tests a machine built with its own denominations, breaking a 100 down through 50s and 10s
+   * to produce 2s.
+   */
+  @Test
+  public void testCustomDenominations() {
+    atm = new LimitedTellerMachine(DenominationSet.of(1, 2, 10, 50, 100));
+    atm.deposit(100, 1, 2, 2);
+    assertEquals(0, atm.getQuantity(5));
+    assertTrue(atm.withdraw(2, 5));
+    assertEquals(2, atm.getQuantity(2));
+    assertEquals(4, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(50));
+    assertEquals(0, atm.getQuantity(100));
+    assertEquals(94, atm.getTotalValue());
+    assertFalse(atm.withdraw(5, 1));
+  }
+
+  /**
+   * Tests that a denomination outside a custom set cannot be deposited.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testDepositOutsideCustomDenominations() {
+    atm = new LimitedTellerMachine(DenominationSet.of(1, 2, 10, 50, 100));
+    atm.deposit(20, 1);
+  }
+
+  /**
+   * Tests a break-down whose remainder lies past twice the biggest denomination: with 25 and 60,
+   * a 25 is only paid by breaking five 60s, the rest going back as eleven 25s.
+   */
+  @Test
+  public void testBreakDownPastFrobeniusNumber() {
+    DenominationSet set = DenominationSet.of(25, 60);
+    for (BreakDownStrategy strategy : BreakDownStrategy.values()) {
+      atm = new LimitedTellerMachine(set, strategy);
+      atm.deposit(60, 5);
+      assertTrue(strategy.name(), atm.withdraw(25, 1));
+      assertEquals(11, atm.getQuantity(25));
+      assertEquals(0, atm.getQuantity(60));
+      atm.deposit(60, 4);
+      assertFalse(strategy.name(), atm.withdraw(25, 12));
+      assertEquals(11, atm.getQuantity(25));
+    }
+  }
+
+  /**
+   * Tests breaking a 50 into 10s when 50 is not a multiple of 20, paying the remainder as a 20.
+   */
+  @Test
+  public void testNonMultipleDenominations() {
+    atm = new LimitedTellerMachine(DenominationSet.of(10, 20, 50));
+    atm.deposit(50, 1);
+    assertTrue(atm.withdraw(10, 3));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(20));
+    assertEquals(0, atm.getQuantity(50));
+    assertEquals(20, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that a break-down is found only when the remainder can be paid back exactly: one 25
+   * cannot give a 10, but two 25s give five 10s.
+   */
+  @Test
+  public void testBreakDownNeedsExactRemainder() {
+    atm = new LimitedTellerMachine(DenominationSet.of(10, 25));
+    atm.deposit(25, 1);
+    assertFalse(atm.withdraw(10, 1));
+    assertEquals(1, atm.getQuantity(25));
+    atm.deposit(25, 1);
+    assertTrue(atm.withdraw(10, 1));
+    assertEquals(4, atm.getQuantity(10));
+    assertEquals(0, atm.getQuantity(25));
+  }
+
+  /**
+   * Tests a very large shortfall of 20s broken from 50s, which takes the bulk of the notes
+   * before searching for the rest.
+   */
+  @Test
+  public void testLargeNonMultipleShortfall() {
+    atm = new LimitedTellerMachine(DenominationSet.of(20, 50));
+    atm.deposit(50, 2000000);
+    assertTrue(atm.withdraw(20, 3000001));
+    assertEquals(4, atm.getQuantity(20));
+    assertEquals(799998, atm.getQuantity(50));
+    assertEquals(39999980, atm.getTotalValue());
+  }
+
+  /**
+   * Tests a large shortfall on a set that is not exact, where the notes taken in bulk must leave
+   * a search that still reaches a sum whose change can be paid back.
+   */
+  @Test
+  public void testLargeShortfallWithChange() {
+    atm = new LimitedTellerMachine(DenominationSet.of(35, 55, 176, 188));
+    atm.deposit(55, 2234543, 188, 2058426);
+    long total = atm.getTotalValue();
+    assertTrue(atm.canWithdraw(35, 7370074));
+    assertTrue(atm.withdraw(35, 7370074));
+    assertEquals(total - 35L * 7370074, atm.getTotalValue());
+    assertEquals(0, atm.getQuantity(176));
+
+    atm = new LimitedTellerMachine(DenominationSet.of(13, 46));
+    atm.deposit(46, 1 << 30);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(atm.withdraw(13, 1000000));
+    }
+    assertTrue(atm.getQuantity(13) < 46);
+  }
+
+  /**
+   * Tests that preserving the highest denominations breaks the 5s for fifteen 1s, while breaking
+   * the fewest notes breaks the single 20 and pays the remaining 5 back.
+   */
+  @Test
+  public void testBreakDownStrategies() {
+    atm = new LimitedTellerMachine(DenominationSet.STANDARD, BreakDownStrategy.PRESERVE_HIGHEST);
+    atm.deposit(5, 3, 20, 1);
+    assertTrue(atm.withdraw(1, 15));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(1, atm.getQuantity(20));
+
+    atm = new LimitedTellerMachine(DenominationSet.STANDARD,
+        BreakDownStrategy.FEWEST_NOTES_BROKEN);
+    atm.deposit(5, 3, 20, 1);
+    assertTrue(atm.withdraw(1, 15));
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(4, atm.getQuantity(5));
+    assertEquals(0, atm.getQuantity(20));
+    assertEquals(20, atm.getTotalValue());
+  }
+
+  /**
+   * Tests the strategies on a set where 50 is not a multiple of 20: forty in 10s comes from two
+   * 20s when preserving the 50, or from the single 50 when breaking the fewest notes.
+   */
+  @Test
+  public void testBreakDownStrategiesNonMultiple() {
+    DenominationSet set = DenominationSet.of(10, 20, 50);
+    atm = new LimitedTellerMachine(set, BreakDownStrategy.PRESERVE_HIGHEST);
+    atm.deposit(20, 3, 50, 1);
+    assertTrue(atm.withdraw(10, 4));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(1, atm.getQuantity(20));
+    assertEquals(1, atm.getQuantity(50));
+
+    atm = new LimitedTellerMachine(set, BreakDownStrategy.FEWEST_NOTES_BROKEN);
+    atm.deposit(20, 3, 50, 1);
+    assertTrue(atm.withdraw(10, 4));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(3, atm.getQuantity(20));
+    assertEquals(0, atm.getQuantity(50));
+  }
+
+  /**
+   * Tests a million 1s from 20s when breaking the fewest notes: 50000 20s and the 5 cover it.
+   */
+  @Test
+  public void testFewestNotesLargeShortfall() {
+    atm = new LimitedTellerMachine(DenominationSet.STANDARD,
+        BreakDownStrategy.FEWEST_NOTES_BROKEN);
+    atm.deposit(5, 1, 20, 100000);
+    assertTrue(atm.withdraw(1, 1000003));
+    assertEquals(2, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(50000, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests a large shortfall when breaking the fewest notes on a set that is not exact, where the
+   * notes taken in bulk must leave a search that still reaches a sum whose change can be paid back.
+   */
+  @Test
+  public void testFewestNotesLargeShortfallWithChange() {
+    atm = new LimitedTellerMachine(DenominationSet.of(15, 90, 101, 148),
+        BreakDownStrategy.FEWEST_NOTES_BROKEN);
+    atm.deposit(101, 4869997, 148, 3838005);
+    long total = atm.getTotalValue();
+    assertTrue(atm.canWithdraw(90, 9038949));
+    assertTrue(atm.withdraw(90, 9038949));
+    assertEquals(total - 90L * 9038949, atm.getTotalValue());
+    assertEquals(0, atm.getQuantity(90));
+    assertEquals(0, atm.getQuantity(148));
+  }
+
+  /**
+   * Tests that metrics count every outcome, time every call, and count the notes broken per tier.
+   */
+  @Test
+  public void testMetrics() {
+    assumeTrue(TellerMetrics.ENABLED);
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    try {
+      atm.deposit(3, 1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertFalse(atm.withdraw(1));
+    assertFalse(atm.withdraw(3, 1));
+    assertFalse(atm.withdraw(20, 13));
+    atm.deposit(1, 20);
+    assertFalse(atm.withdraw(20, 13));
+
+    TellerMetrics metrics = atm.metrics();
+    assertEquals(2, metrics.count(TellerMetrics.Outcome.DEPOSITED));
+    assertEquals(1, metrics.count(TellerMetrics.Outcome.DEPOSIT_REJECTED));
+    assertEquals(1, metrics.count(TellerMetrics.Outcome.WITHDRAWN));
+    assertEquals(2, metrics.count(TellerMetrics.Outcome.INVALID_REQUEST));
+    assertEquals(1, metrics.count(TellerMetrics.Outcome.INSUFFICIENT_TOTAL));
+    assertEquals(1, metrics.count(TellerMetrics.Outcome.NO_EXACT_CHANGE));
+    assertEquals(3, metrics.depositLatency().count());
+    assertEquals(5, metrics.withdrawLatency().count());
+    assertEquals(1, metrics.breakDowns());
+    assertEquals(3, metrics.brokenNotes(20));
+    assertEquals(4, metrics.brokenNotes(10));
+    assertEquals(8, metrics.brokenNotes(5));
+    assertEquals(0, metrics.brokenNotes(1));
+  }
+
+  /**
+   * Tests that canWithdraw agrees with withdraw, for served, short and invalid requests, without
+   * changing the machine.
+   */
+  @Test
+  public void testCanWithdraw() {
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.canWithdraw());
+    assertTrue(atm.canWithdraw(1, 43, 10, 3));
+    assertFalse(atm.canWithdraw(20, 16));
+    assertFalse(atm.canWithdraw(1));
+    assertFalse(atm.canWithdraw(3, 1));
+    assertFalse(atm.canWithdraw(5, -1));
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(15, atm.getQuantity(20));
+    assertEquals(313, atm.getTotalValue());
+
+    atm = new LimitedTellerMachine(DenominationSet.of(20, 50));
+    atm.deposit(50, 1);
+    assertFalse(atm.canWithdraw(20, 1));
+    assertFalse(atm.withdraw(20, 1));
+    assertTrue(atm.canWithdraw(50, 1));
+    assertEquals(1, atm.getQuantity(50));
+  }
+
+  /**
+   * Tests that a subscriber to the inventory changes sees the counts after every deposit and
+   * withdrawal, and that the deltas it receives add up to those counts.
+   */
+  @Test
+  public void testChanges() throws InterruptedException {
+    BlockingQueue<InventoryEvent> events = new LinkedBlockingQueue<>();
+    atm.changes().subscribe(new Flow.Subscriber<InventoryEvent>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(InventoryEvent item) {
+        events.add(item);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertFalse(atm.withdraw(20, 13));
+
+    long[] sums = new long[4];
+    InventoryEvent event;
+    do {
+      event = events.poll(10, TimeUnit.SECONDS);
+      assertTrue(event != null);
+      sums[0] += event.delta(1);
+      sums[3] += event.delta(20);
+    } while (event.version() < 2);
+    assertEquals(0, event.count(1));
+    assertEquals(12, event.count(20));
+    assertEquals(0, sums[0]);
+    assertEquals(12, sums[3]);
+  }
+
+  /**
+   * Tests that crossing the low watermark alerts once, hovering around it does not alert again,
+   * and only reaching the high watermark reports the denomination restocked.
+   */
+  @Test
+  public void testWatermarks() {
+    StringBuilder alerts = new StringBuilder();
+    atm.addWatermarkListener(new WatermarkListener() {
+      @Override
+      public void lowStock(int denomination, long count) {
+        alerts.append("low ").append(denomination).append(':').append(count).append(' ');
+      }
+
+      @Override
+      public void restocked(int denomination, long count) {
+        alerts.append("restocked ").append(denomination).append(':').append(count).append(' ');
+      }
+    });
+    atm.deposit(20, 12);
+    atm.setWatermarks(20, 5, 10);
+    assertTrue(atm.withdraw(20, 7));
+    assertEquals("", alerts.toString());
+    assertTrue(atm.withdraw(20, 2));
+    assertEquals("low 20:3 ", alerts.toString());
+    for (int i = 0; i < 3; i++) {
+      atm.deposit(20, 3);
+      assertTrue(atm.withdraw(20, 3));
+    }
+    atm.deposit(20, 6);
+    assertEquals("low 20:3 ", alerts.toString());
+    atm.deposit(20, 1);
+    assertEquals("low 20:3 restocked 20:10 ", alerts.toString());
+
+    // Breaking a 20 down crosses the watermark of the 20s too
+    atm.setWatermarks(1, 1, 1);
+    assertTrue(atm.withdraw(1, 120));
+    assertEquals("low 20:3 restocked 20:10 low 20:4 ", alerts.toString());
+  }
+
+  /**
+   * Tests that watermarks are only accepted for supported denominations, in order.
+   */
+  @Test
+  public void testInvalidWatermarks() {
+    try {
+      atm.setWatermarks(3, 1, 2);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      atm.setWatermarks(20, 5, 4);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
 }
@@ -0,0 +1,154 @@
+package teller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the MultiCurrencyTellerMachine.
+ */
+public class MultiCurrencyTellerMachineTest {
+
+  private static final DenominationSet EURO = DenominationSet.of(5, 10, 20, 50);
+
+  private MultiCurrencyTellerMachine atm;
+
+  /**
+   * Creates an empty machine holding USD with the standard denominations and EUR.
+   */
+  @Before
+  public void setUp() {
+    Map<String, DenominationSet> currencies = new LinkedHashMap<>();
+    currencies.put("USD", DenominationSet.STANDARD);
+    currencies.put("EUR", EURO);
+    atm = new MultiCurrencyTellerMachine(currencies);
+  }
+
+  /**
+   * Tests that the ledgers of the currencies are kept apart.
+   */
+  @Test
+  public void testCurrenciesApart() {
+    assertArrayEquals(new String[] {"USD", "EUR"}, atm.currencies());
+    atm.deposit("USD", 20, 2, 1, 3);
+    atm.deposit("EUR", 50, 1);
+    assertEquals(43, atm.getTotalValue("USD"));
+    assertEquals(50, atm.getTotalValue("EUR"));
+    assertEquals(0, atm.getQuantity("EUR", 20));
+
+    assertTrue(atm.withdraw("EUR", 20, 2));
+    assertEquals(1, atm.getQuantity("EUR", 10));
+    assertEquals(2, atm.getQuantity("USD", 20));
+    assertFalse(atm.withdraw("EUR", 20, 1));
+    assertTrue(atm.canWithdraw("USD", 5, 1));
+    assertEquals(0, atm.getQuantity("USD", 5));
+    assertFalse(atm.withdraw("USD", 50, 1));
+    assertFalse(atm.withdraw("GBP", 1, 1));
+    assertEquals(0, atm.getTotalValue("GBP"));
+  }
+
+  /**
+   * Tests that invalid deposits are rejected.
+   */
+  @Test
+  public void testInvalidDeposits() {
+    try {
+      atm.deposit("GBP", 1, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      atm.deposit("EUR", 1, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      atm.deposit("EUR", 5, 2, 1, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertEquals(0, atm.getTotalValue("EUR"));
+  }
+
+  /**
+   * Tests a batch mixing currencies, with an unknown currency and an empty request.
+   */
+  @Test
+  public void testCrossCurrencyBatch() {
+    atm.deposit("USD", 10, 3);
+    atm.deposit("EUR", 10, 1);
+    int usd = atm.currencyIndex("USD");
+    int eur = atm.currencyIndex("EUR");
+    assertEquals(-1, atm.currencyIndex("GBP"));
+    boolean[] results = new boolean[5];
+    assertEquals(5, atm.withdrawBatch(new int[] {
+        usd, 1, 10, 2,
+        eur, 1, 5, 2,
+        eur, 1, 10, 1,
+        7, 1, 10, 1,
+        usd, 0}, results));
+    assertArrayEquals(new boolean[] {true, true, false, false, true}, results);
+    assertEquals(1, atm.getQuantity("USD", 10));
+    assertEquals(0, atm.getTotalValue("EUR"));
+    try {
+      atm.withdrawBatch(new int[] {usd, 2, 10, 1}, results);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that a count above Integer.MAX_VALUE reads as Integer.MAX_VALUE rather than wrapping,
+   * while the total and withdrawals still see every note.
+   */
+  @Test
+  public void testQuantitySaturates() {
+    atm.deposit("EUR", 5, Integer.MAX_VALUE, 5, 2);
+    assertEquals(Integer.MAX_VALUE, atm.getQuantity("EUR", 5));
+    assertEquals(Integer.MAX_VALUE, atm.machine("EUR").getQuantity(5));
+    assertEquals(5L * Integer.MAX_VALUE + 10, atm.getTotalValue("EUR"));
+    assertTrue(atm.withdraw("EUR", 5, 3));
+    assertEquals(Integer.MAX_VALUE - 1, atm.getQuantity("EUR", 5));
+  }
+
+  /**
+   * Tests that the view of one currency behaves exactly like a LimitedTellerMachine.
+   */
+  @Test
+  public void testViewMatchesLimited() {
+    TellerMachine view = atm.machine("EUR");
+    LimitedTellerMachine reference = new LimitedTellerMachine(EURO);
+    Random random = new Random(25);
+    for (int i = 0; i < 2000; i++) {
+      int denomination = EURO.denomination(random.nextInt(4));
+      int quantity = random.nextInt(4);
+      if (random.nextInt(3) == 0) {
+        view.deposit(denomination, quantity);
+        reference.deposit(denomination, quantity);
+      } else {
+        assertEquals(reference.canWithdraw(denomination, quantity),
+            view.canWithdraw(denomination, quantity));
+        assertEquals(reference.withdraw(denomination, quantity),
+            view.withdraw(denomination, quantity));
+      }
+      assertEquals(reference.getTotalValue(), view.getTotalValue());
+      for (int d = 0; d < EURO.size(); d++) {
+        assertEquals(reference.getQuantity(EURO.denomination(d)),
+            view.getQuantity(EURO.denomination(d)));
+      }
+    }
+    assertEquals(0, atm.getTotalValue("USD"));
+  }
+}
@@ -0,0 +1,156 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the PipelinedTellerMachine.
+ * This class checks that commands reach the delegate in order with their results, that failures
+ * come back to the caller, and that no notes are lost when many threads share the ring.
+ */
+public class PipelinedTellerMachineTest {
+
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 20000;
+  private static final int[] DENOMINATIONS = {1, 5, 10, 20};
+
+  private PipelinedTellerMachine atm;
+  private ExecutorService pool;
+
+  /**
+   * Sets up a pipeline of 4 slots in front of a LimitedTellerMachine, fewer than the threads, so
+   * callers wait for slots to come round.
+   */
+  @Before
+  public void setUp() {
+    atm = new PipelinedTellerMachine(new LimitedTellerMachine(), 4);
+    pool = Executors.newFixedThreadPool(THREADS);
+  }
+
+  /**
+   * Shuts the pipeline and the thread pool down after each test.
+   */
+  @After
+  public void tearDown() {
+    atm.close();
+    pool.shutdownNow();
+  }
+
+  /**
+   * Tests every kind of command on a single thread.
+   */
+  @Test
+  public void testCommands() {
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.canWithdraw(1, 43, 10, 3));
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertFalse(atm.withdraw(20, 13));
+    assertFalse(atm.withdraw(1));
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(12, atm.getQuantity(20));
+    assertEquals(240, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that commands longer than the pooled buffers are applied, including a rejected one.
+   */
+  @Test
+  public void testLongCommands() {
+    int[] deposit = new int[2 * PipelinedTellerMachine.POOLED_INTS];
+    for (int i = 0; i < deposit.length; i += 2) {
+      deposit[i] = 5;
+      deposit[i + 1] = 1;
+    }
+    atm.deposit(deposit);
+    assertEquals(PipelinedTellerMachine.POOLED_INTS, atm.getQuantity(5));
+    assertTrue(atm.withdraw(deposit));
+    assertEquals(0, atm.getQuantity(5));
+    deposit[deposit.length - 2] = 3;
+    try {
+      atm.deposit(deposit);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    atm.deposit(5, 2);
+    assertEquals(2, atm.getQuantity(5));
+  }
+
+  /**
+   * Tests that a deposit the delegate rejects throws in the calling thread, and the pipeline
+   * carries on.
+   */
+  @Test
+  public void testRejectedDeposit() {
+    try {
+      atm.deposit(3, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    atm.deposit(5, 2);
+    assertEquals(2, atm.getQuantity(5));
+  }
+
+  /**
+   * Tests that calls after close are refused.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() {
+    atm.deposit(20, 1);
+    atm.close();
+    atm.getQuantity(20);
+  }
+
+  /**
+   * Tests that the total value is conserved while many threads deposit and withdraw random
+   * requests that break notes down.
+   */
+  @Test
+  public void testValueConservedUnderContention() throws Exception {
+    List<Callable<long[]>> tasks = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      tasks.add(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long deposited = 0;
+        long withdrawn = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+          int den = DENOMINATIONS[random.nextInt(DENOMINATIONS.length)];
+          int qty = random.nextInt(4);
+          if (random.nextBoolean()) {
+            atm.deposit(den, qty);
+            deposited += (long) den * qty;
+          } else if (atm.withdraw(den, qty, 1, 1)) {
+            withdrawn += (long) den * qty + 1;
+          }
+        }
+        return new long[] {deposited, withdrawn};
+      });
+    }
+
+    long expected = 0;
+    for (Future<long[]> result : pool.invokeAll(tasks)) {
+      expected += result.get()[0] - result.get()[1];
+    }
+    long actual = 0;
+    for (int den : DENOMINATIONS) {
+      assertTrue(atm.getQuantity(den) >= 0);
+      actual += (long) den * atm.getQuantity(den);
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected, atm.getTotalValue());
+  }
+}
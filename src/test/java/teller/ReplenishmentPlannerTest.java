@@ -0,0 +1,108 @@
+package teller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ReplenishmentPlanner fed by a LimitedTellerMachine.
+ */
+public class ReplenishmentPlannerTest {
+
+  private LimitedTellerMachine atm;
+  private ReplenishmentPlanner planner;
+
+  /**
+   * Creates a machine with the standard denominations feeding a planner.
+   */
+  @Before
+  public void setUp() {
+    atm = new LimitedTellerMachine();
+    planner = new ReplenishmentPlanner(DenominationSet.STANDARD, 100);
+    atm.setPlanner(planner);
+  }
+
+  /**
+   * Tests that served and failed withdrawals count as demand, and break-downs as shortfall.
+   */
+  @Test
+  public void testDemandAndShortfall() {
+    atm.deposit(20, 10);
+    assertTrue(atm.withdraw(20, 2));
+    assertEquals(2, planner.demand(20), 1e-9);
+
+    // Breaking a 20 down produces two 10s, one of which is broken into four 5s
+    assertTrue(atm.withdraw(5, 3));
+    assertEquals(3, planner.demand(5), 1e-9);
+    assertEquals(4, planner.shortfall(5), 1e-9);
+    assertEquals(2, planner.shortfall(10), 1e-9);
+    assertEquals(0, planner.shortfall(20), 1e-9);
+
+    // A failed withdrawal is unmet demand, an invalid one is ignored
+    assertFalse(atm.withdraw(20, 100));
+    assertFalse(atm.withdraw(3, 1));
+    assertTrue(planner.demand(20) > 100);
+    assertEquals(0, planner.demand(3), 1e-9);
+  }
+
+  /**
+   * Tests that old demand decays with the half life.
+   */
+  @Test
+  public void testDecay() {
+    atm.deposit(1, 1000, 20, 1000);
+    assertTrue(atm.withdraw(20, 10));
+    for (int i = 0; i < 100; i++) {
+      assertTrue(atm.withdraw(1, 1));
+    }
+    assertEquals(5, planner.demand(20), 1e-6);
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(atm.withdraw(1, 0));
+    }
+    assertTrue(planner.demand(20) < 1e-9);
+  }
+
+  /**
+   * Tests that the peak request settles near the biggest usual request.
+   */
+  @Test
+  public void testPeakRequest() {
+    atm.deposit(10, 100000);
+    for (int i = 0; i < 2000; i++) {
+      assertTrue(atm.withdraw(10, i % 20 == 0 ? 8 : 2));
+    }
+    assertTrue(planner.peakRequest(10) >= 2);
+    assertTrue(planner.peakRequest(10) < 8);
+    assertEquals(0, planner.peakRequest(5), 1e-9);
+  }
+
+  /**
+   * Tests that a refill is shared by the value demanded and never exceeds the budget.
+   */
+  @Test
+  public void testRecommend() {
+    // Nothing seen yet, shared evenly
+    assertArrayEquals(new int[] {1, 25, 5, 5, 10, 3, 20, 1}, planner.recommend(100));
+
+    atm.deposit(20, 100);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(atm.withdraw(20, 1, 5, 1));
+    }
+    int[] mix = planner.recommend(1000);
+    long value = 0;
+    for (int i = 0; i < mix.length; i += 2) {
+      value += (long) mix[i] * mix[i + 1];
+    }
+    assertEquals(1000, value);
+    // No 1s were asked for; the 5s broken from 20s earn them more than their demand alone
+    assertEquals(5, mix[0]);
+    assertTrue(5 * mix[1] > 1000 / 5);
+    assertEquals(20, mix[mix.length - 2]);
+    assertTrue(20 * mix[mix.length - 1] > 5 * mix[1]);
+    assertArrayEquals(new int[0], planner.recommend(0));
+  }
+}
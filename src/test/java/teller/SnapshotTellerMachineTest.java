@@ -0,0 +1,148 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the SnapshotTellerMachine.
+ * This class checks the break-down rules and that concurrent writers never lose an update.
+ */
+public class SnapshotTellerMachineTest {
+
+  private SnapshotTellerMachine atm;
+
+  /**
+   * Sets up a new instance of the SnapshotTellerMachine before each test.
+   */
+  @Before
+  public void setUp() {
+    atm = new SnapshotTellerMachine();
+  }
+
+  /**
+   * Tests depositing twice around a withdrawal that breaks 20s down into 10s and 1s.
+   */
+  @Test
+  public void testDepositTwice() {
+    atm.deposit(1, 3, 5, 0, 10, 1, 20, 15);
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(5));
+    assertEquals(0, atm.getQuantity(10));
+    assertEquals(12, atm.getQuantity(20));
+    atm.deposit(1, 3, 5, 0, 10, 1, 20, 15);
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(27, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that a failed withdrawal leaves the machine unchanged.
+   */
+  @Test
+  public void testFailedWithdrawLeavesMachineUnchanged() {
+    atm.deposit(1, 10, 20, 1);
+    assertFalse(atm.withdraw(20, 1, 10, 1));
+    assertFalse(atm.withdraw(2, 1));
+    assertEquals(10, atm.getQuantity(1));
+    assertEquals(1, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that notes are conserved while several threads race to deposit and withdraw.
+   */
+  @Test
+  public void testNotesConservedUnderContention() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Callable<Long>> tasks = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        tasks.add(() -> {
+          long net = 0;
+          for (int i = 0; i < 20000; i++) {
+            atm.deposit(20, 2);
+            net += 2;
+            if (atm.withdraw(20, 3)) {
+              net -= 3;
+            }
+          }
+          return net;
+        });
+      }
+      long expected = 0;
+      for (Future<Long> result : pool.invokeAll(tasks)) {
+        expected += result.get();
+      }
+      assertEquals(expected, atm.getQuantity(20));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests a batch of withdrawals through the default batch implementation.
+   */
+  @Test
+  public void testWithdrawBatch() {
+    atm.deposit(1, 5, 20, 1);
+    boolean[] results = new boolean[3];
+    assertEquals(3, atm.withdrawBatch(new int[] {1, 1, 5, 1, 10, 2, 1, 20, 1}, results));
+    assertTrue(results[0]);
+    assertTrue(results[1]);
+    assertFalse(results[2]);
+    assertEquals(0, atm.getQuantity(1));
+    assertEquals(0, atm.getQuantity(20));
+  }
+
+  /**
+   * Tests that the total value follows deposits, break-down withdrawals and failed withdrawals.
+   */
+  @Test
+  public void testGetTotalValue() {
+    assertEquals(0, atm.getTotalValue());
+    atm.deposit(1, 3, 5, 0, 10, 1, 20, 2);
+    assertEquals(53, atm.getTotalValue());
+    assertTrue(atm.withdraw(1, 5, 10, 1));
+    assertEquals(38, atm.getTotalValue());
+    assertFalse(atm.withdraw(1, 39));
+    assertFalse(atm.withdraw(20, 1, 10, 2));
+    assertEquals(38, atm.getTotalValue());
+  }
+
+  /**
+   * Tests that canWithdraw agrees with withdraw without changing the machine.
+   */
+  @Test
+  public void testCanWithdraw() {
+    atm.deposit(1, 3, 10, 1, 20, 15);
+    assertTrue(atm.canWithdraw(1, 43, 10, 3));
+    assertFalse(atm.canWithdraw(20, 16));
+    assertFalse(atm.canWithdraw(3, 1));
+    assertEquals(3, atm.getQuantity(1));
+    assertEquals(15, atm.getQuantity(20));
+    assertTrue(atm.withdraw(1, 43, 10, 3));
+    assertFalse(atm.canWithdraw(20, 13));
+  }
+
+  /**
+   * Tests that a count above Integer.MAX_VALUE reads as Integer.MAX_VALUE rather than wrapping.
+   */
+  @Test
+  public void testQuantitySaturates() {
+    atm.deposit(20, Integer.MAX_VALUE, 20, 1);
+    assertEquals(Integer.MAX_VALUE, atm.getQuantity(20));
+    assertEquals(20L * Integer.MAX_VALUE + 20, atm.getTotalValue());
+    assertTrue(atm.withdraw(20, 2));
+    assertEquals(Integer.MAX_VALUE - 1, atm.getQuantity(20));
+  }
+}
@@ -0,0 +1,141 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the TellerFleet.
+ * This class checks that requests are routed to a machine that can serve them, and that routing
+ * leaves every machine unchanged.
+ */
+public class TellerFleetTest {
+
+  private List<LimitedTellerMachine> machines;
+  private TellerFleet fleet;
+
+  /**
+   * Sets up a fleet of five empty machines before each test.
+   */
+  @Before
+  public void setUp() {
+    machines = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      machines.add(new LimitedTellerMachine());
+    }
+    fleet = new TellerFleet(DenominationSet.STANDARD, machines);
+  }
+
+  /**
+   * Tests routing to the first machine that can serve a request, without changing any machine.
+   */
+  @Test
+  public void testRoute() {
+    fleet.deposit(0, 1, 10);
+    fleet.deposit(3, 20, 2);
+    fleet.deposit(4, 5, 3);
+    assertEquals(3, fleet.route(10, 3));
+    assertEquals(0, fleet.route(1, 10));
+    assertEquals(3, fleet.route(1, 11));
+    assertEquals(3, fleet.route(5, 3));
+    assertEquals(-1, fleet.route(20, 3));
+    assertEquals(2, machines.get(3).getQuantity(20));
+    assertEquals(10, machines.get(0).getQuantity(1));
+    assertEquals(3, fleet.withdraw(20, 2));
+    assertEquals(4, fleet.route(5, 3));
+  }
+
+  /**
+   * Tests that withdrawing through the fleet updates its index.
+   */
+  @Test
+  public void testWithdraw() {
+    fleet.deposit(1, 20, 1);
+    fleet.deposit(2, 20, 1);
+    assertEquals(1, fleet.withdraw(10, 1, 5, 2));
+    assertEquals(0, machines.get(1).getQuantity(20));
+    assertEquals(2, fleet.withdraw(20, 1));
+    assertEquals(-1, fleet.withdraw(20, 1));
+    assertEquals(0, fleet.withdraw(1, 0));
+  }
+
+  /**
+   * Tests that a machine covering every slot in value but unable to pay exactly is skipped.
+   */
+  @Test
+  public void testNonMultipleSet() {
+    DenominationSet set = DenominationSet.of(20, 50);
+    machines.clear();
+    for (int i = 0; i < 3; i++) {
+      machines.add(new LimitedTellerMachine(set));
+    }
+    fleet = new TellerFleet(set, machines);
+    fleet.deposit(0, 50, 1);
+    fleet.deposit(2, 20, 1);
+    assertEquals(2, fleet.route(20, 1));
+    assertEquals(2, fleet.withdraw(20, 1));
+    assertEquals(-1, fleet.withdraw(20, 1));
+    assertEquals(0, fleet.withdraw(50, 1));
+  }
+
+  /**
+   * Tests that the leaf is confirmed by the machine itself rather than by a fixed strategy.
+   */
+  @Test
+  public void testConfirmsWithMachine() {
+    machines.set(0, new LimitedTellerMachine(DenominationSet.STANDARD,
+        BreakDownStrategy.FEWEST_NOTES_BROKEN) {
+      @Override
+      public boolean canWithdraw(int... request) {
+        return false;
+      }
+    });
+    fleet = new TellerFleet(DenominationSet.STANDARD, machines);
+    fleet.deposit(0, 20, 1);
+    fleet.deposit(1, 20, 1);
+    assertEquals(1, fleet.route(5, 1));
+    assertEquals(1, fleet.withdraw(5, 1));
+    assertEquals(1, machines.get(0).getQuantity(20));
+    assertEquals(-1, fleet.route(20, 1));
+  }
+
+  /**
+   * Tests routing across many machines against trying every machine in turn on copies.
+   */
+  @Test
+  public void testMatchesLinearSearch() {
+    Random random = new Random(15);
+    machines.clear();
+    for (int i = 0; i < 200; i++) {
+      machines.add(new LimitedTellerMachine());
+    }
+    fleet = new TellerFleet(DenominationSet.STANDARD, machines);
+    int[] denominations = {1, 5, 10, 20};
+    for (int i = 0; i < 200; i++) {
+      fleet.deposit(i, denominations[random.nextInt(4)], random.nextInt(10));
+    }
+    for (int i = 0; i < 2000; i++) {
+      int[] request = {denominations[random.nextInt(4)], random.nextInt(20)};
+      int expected = -1;
+      for (int m = 0; m < machines.size() && expected < 0; m++) {
+        LimitedTellerMachine copy = new LimitedTellerMachine();
+        for (int d : denominations) {
+          copy.deposit(d, machines.get(m).getQuantity(d));
+        }
+        if (copy.withdraw(request)) {
+          expected = m;
+        }
+      }
+      assertEquals(expected, fleet.withdraw(request));
+      if (i % 10 == 0) {
+        fleet.deposit(random.nextInt(200), denominations[random.nextInt(4)], 5);
+      }
+    }
+    assertTrue(fleet.size() == 200);
+  }
+}
@@ -0,0 +1,120 @@
+package teller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests a TellerServer through TellerClient connections over loopback.
+ */
+public class TellerServerTest {
+
+  private TellerServer server;
+  private TellerClient atm;
+
+  /**
+   * Serves a ConcurrentTellerMachine on a free port and connects a client to it.
+   */
+  @Before
+  public void setUp() throws IOException {
+    server = new TellerServer(new ConcurrentTellerMachine(), 0);
+    atm = new TellerClient(server.port());
+  }
+
+  /**
+   * Closes the client and the server.
+   */
+  @After
+  public void tearDown() throws IOException {
+    atm.close();
+    server.close();
+  }
+
+  /**
+   * Tests every call through the server.
+   */
+  @Test
+  public void testCalls() {
+    atm.deposit(1, 10, 20, 2);
+    assertEquals(10, atm.getQuantity(1));
+    assertEquals(50, atm.getTotalValue());
+    assertTrue(atm.canWithdraw(5, 1));
+    assertTrue(atm.withdraw(5, 1));
+    assertFalse(atm.withdraw(20, 5));
+    assertEquals(1, atm.getQuantity(5));
+    assertEquals(1, atm.getQuantity(10));
+    assertEquals(0, atm.getQuantity(3));
+    try {
+      atm.deposit(3, 1);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertEquals(45, atm.getTotalValue());
+  }
+
+  /**
+   * Tests a pipelined batch bigger than one window.
+   */
+  @Test
+  public void testPipelinedBatch() {
+    int count = 3 * TellerClient.WINDOW + 7;
+    atm.deposit(1, 2 * TellerClient.WINDOW);
+    int[] requests = new int[3 * count];
+    for (int r = 0; r < count; r++) {
+      requests[3 * r] = 1;
+      requests[3 * r + 1] = 1;
+      requests[3 * r + 2] = 1;
+    }
+    boolean[] results = new boolean[count];
+    assertEquals(count, atm.withdrawBatch(requests, results));
+    for (int r = 0; r < count; r++) {
+      assertEquals(r < 2 * TellerClient.WINDOW, results[r]);
+    }
+    atm.deposit(1, 1);
+    BitSet served = new BitSet();
+    assertEquals(2, atm.withdrawBatch(new int[] {1, 1, 1, 1, 1, 1}, served));
+    assertEquals(1, served.cardinality());
+  }
+
+  /**
+   * Tests many clients depositing and withdrawing at once.
+   */
+  @Test
+  public void testManyClients() throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      threads.add(new Thread(() -> {
+        try (TellerClient client = new TellerClient(server.port())) {
+          for (int i = 0; i < 500; i++) {
+            client.deposit(10, 2);
+            assertTrue(client.withdraw(10, 1));
+          }
+        } catch (Throwable e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertArrayEquals(new Throwable[0], failures.toArray());
+    assertEquals(4000, atm.getQuantity(10));
+  }
+}
@@ -0,0 +1,117 @@
+package teller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests recording a trace with RecordingTellerMachine and replaying it with TraceReplayer.
+ */
+public class TraceReplayerTest {
+
+  private TraceReplayer replayer;
+
+  /**
+   * Records a random workload of deposits, withdrawals and quantity reads on a
+   * LimitedTellerMachine.
+   */
+  @Before
+  public void setUp() throws IOException {
+    ByteArrayOutputStream trace = new ByteArrayOutputStream();
+    Random random = new Random(23);
+    try (RecordingTellerMachine atm = new RecordingTellerMachine(new LimitedTellerMachine(),
+        DenominationSet.STANDARD, trace)) {
+      for (int i = 0; i < 2000; i++) {
+        int denomination = DenominationSet.STANDARD.values[random.nextInt(4)];
+        int op = random.nextInt(10);
+        if (op < 3) {
+          atm.deposit(denomination, random.nextInt(5));
+        } else if (op < 9) {
+          atm.withdraw(denomination, random.nextInt(4));
+        } else {
+          atm.getQuantity(denomination);
+        }
+      }
+      try {
+        atm.deposit(1, 2, 3, 1);
+        fail("expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        // Recorded as rejected, with nothing added
+      }
+    }
+    replayer = TraceReplayer.read(new ByteArrayInputStream(trace.toByteArray()));
+  }
+
+  /**
+   * Tests that the trace decodes to every call with its recorded result.
+   */
+  @Test
+  public void testRead() {
+    assertEquals(DenominationSet.STANDARD, replayer.denominations());
+    assertEquals(2001, replayer.calls());
+    assertEquals(0, replayer.recorded(2000));
+  }
+
+  /**
+   * Tests that the other implementations match LimitedTellerMachine on the trace.
+   */
+  @Test
+  public void testMatchingEngines() {
+    assertNull(replayer.firstDivergence(LimitedTellerMachine::new));
+    assertNull(replayer.firstDivergence(ConcurrentTellerMachine::new));
+    assertNull(replayer.firstDivergence(SnapshotTellerMachine::new));
+    assertNull(replayer.firstDivergence(() -> new PipelinedTellerMachine(
+        new LimitedTellerMachine(), 4)));
+  }
+
+  /**
+   * Tests that a machine refusing some withdrawals is caught at the first one it refuses.
+   */
+  @Test
+  public void testDivergence() {
+    String broken = replayer.firstDivergence(() -> new LimitedTellerMachine() {
+      @Override
+      public boolean withdraw(int... request) {
+        return request[1] < 3 && super.withdraw(request);
+      }
+    });
+    assertTrue(broken, broken.matches("call \\d+, withdraw\\(\\d+, 3\\), returned 0, expected 1"));
+  }
+
+  /**
+   * Tests that the report lists the throughput and check of every engine.
+   */
+  @Test
+  public void testReport() {
+    Map<String, Supplier<TellerMachine>> engines = new LinkedHashMap<>();
+    engines.put("limited", LimitedTellerMachine::new);
+    engines.put("concurrent", ConcurrentTellerMachine::new);
+    String report = replayer.report(engines, 2);
+    String[] lines = report.split("\\R");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0], lines[0].startsWith("limited"));
+    assertTrue(lines[1], lines[1].endsWith("matches LimitedTellerMachine"));
+    assertTrue(replayer.throughput(LimitedTellerMachine::new, 1) > 0);
+    assertFalse(report.contains("expected"));
+  }
+
+  /**
+   * Tests that a stream that is not a trace is refused.
+   */
+  @Test(expected = IOException.class)
+  public void testNotATrace() throws IOException {
+    TraceReplayer.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}));
+  }
+}